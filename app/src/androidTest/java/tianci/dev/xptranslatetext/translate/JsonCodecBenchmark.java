@@ -0,0 +1,130 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+
+import tianci.dev.xptranslatetext.util.JsonReader;
+import tianci.dev.xptranslatetext.util.JsonWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the streaming JSON codec with the org.json code it replaced, on payloads shaped like
+ * the real replies. Timings go to logcat under {@link #TAG}; the assertions only check that
+ * both paths agree.
+ */
+@RunWith(AndroidJUnit4.class)
+public class JsonCodecBenchmark {
+
+    private static final String TAG = "JsonCodecBenchmark";
+    private static final int WARMUP = 2_000;
+    private static final int ROUNDS = 20_000;
+
+    private static final String TEXT = "第一段文字，包含\"引号\"和换行\n以及一些 emoji 😀 与 English words. ";
+
+    private static String longText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) sb.append(TEXT);
+        return sb.toString();
+    }
+
+    private interface Op {
+        Object run() throws Exception;
+    }
+
+    private static long nanosPerOp(Op op) throws Exception {
+        Object sink = null;
+        for (int i = 0; i < WARMUP; i++) sink = op.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) sink = op.run();
+        long perOp = (System.nanoTime() - start) / ROUNDS;
+        assertNotNull(sink);
+        return perOp;
+    }
+
+    private static void report(String name, long orgJson, long codec) {
+        Log.i(TAG, String.format("%s: org.json %d ns/op, codec %d ns/op (%.2fx)",
+                name, orgJson, codec, codec == 0 ? 0 : (double) orgJson / codec));
+    }
+
+    @Test
+    public void geminiReply() throws Exception {
+        JSONObject part = new JSONObject().put("text", longText());
+        JSONObject content = new JSONObject().put("parts", new JSONArray().put(part)).put("role", "model");
+        JSONObject candidate = new JSONObject().put("content", content).put("finishReason", "STOP").put("avgLogprobs", -0.12);
+        JSONObject usage = new JSONObject().put("promptTokenCount", 120).put("candidatesTokenCount", 140);
+        String reply = new JSONObject().put("candidates", new JSONArray().put(candidate))
+                .put("usageMetadata", usage).put("modelVersion", "gemini-2.0-flash-lite").toString();
+        byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+
+        Op orgJson = () -> new JSONObject(new String(bytes, StandardCharsets.UTF_8))
+                .getJSONArray("candidates").getJSONObject(0).getJSONObject("content")
+                .getJSONArray("parts").getJSONObject(0).getString("text").trim();
+        Op codec = () -> GeminiProvider.parseResult("bench", bytes);
+
+        assertEquals(orgJson.run(), codec.run());
+        report("gemini reply", nanosPerOp(orgJson), nanosPerOp(codec));
+    }
+
+    @Test
+    public void freeApiReply() throws Exception {
+        JSONArray pieces = new JSONArray();
+        for (int i = 0; i < 8; i++) {
+            pieces.put(new JSONArray().put(TEXT).put("source sentence " + i).put(JSONObject.NULL).put(JSONObject.NULL).put(10));
+        }
+        String reply = new JSONArray().put(pieces).put(JSONObject.NULL).put("zh-CN").toString();
+        byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+
+        Op orgJson = () -> {
+            JSONArray translations = new JSONArray(new String(bytes, StandardCharsets.UTF_8)).getJSONArray(0);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < translations.length(); i++) {
+                sb.append(translations.getJSONArray(i).getString(0));
+            }
+            return sb.toString().trim();
+        };
+        Op codec = () -> GoogleFreeApiProvider.parseResult("bench", bytes);
+
+        assertEquals(orgJson.run(), codec.run());
+        report("free api reply", nanosPerOp(orgJson), nanosPerOp(codec));
+    }
+
+    @Test
+    public void localServiceRoundTrip() throws Exception {
+        String text = longText();
+
+        Op orgJson = () -> {
+            byte[] body = new JSONObject().put("code", 0).put("text", text).toString().getBytes(StandardCharsets.UTF_8);
+            JSONObject obj = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            return obj.optInt("code", -1) == 0 ? obj.optString("text", null).trim() : null;
+        };
+        Op codec = () -> {
+            byte[] body = new JsonWriter(32 + text.length() * 3)
+                    .beginObject().name("code").value(0).name("text").value(text).endObject().toByteArray();
+            return LocalServiceProvider.parseResult(body);
+        };
+
+        assertEquals(orgJson.run(), codec.run());
+        report("local service round trip", nanosPerOp(orgJson), nanosPerOp(codec));
+    }
+
+    @Test
+    public void writerEscapesLikeOrgJson() throws Exception {
+        String nasty = "q\"b\\s/\b\f\n\r\t\u0001\u2028 😀";
+        byte[] encoded = JsonWriter.object("text", nasty);
+        JsonReader r = new JsonReader(encoded);
+        r.beginObject();
+        assertEquals("text", r.nextName());
+        assertEquals(nasty, r.nextString());
+        assertEquals(nasty, new JSONObject(new String(encoded, StandardCharsets.UTF_8)).getString("text"));
+    }
+}
@@ -0,0 +1,265 @@
+// XPTranslateText WebView runtime.
+// Injected once per WebView at document start (or on page finish where that is unsupported),
+// behind a one-line config prefix: window.__xpTranslateConfig = {src, tgt, gemini, gapi, maxInFlight}.
+(function() {
+if (window.__xpTranslateInstalled) return;
+// Translate the top document only; frames are covered by their own parent's text, if at all.
+if (window.top !== window) return;
+window.__xpTranslateInstalled = true;
+const CONFIG = window.__xpTranslateConfig || {};
+const EXCLUDE_TAGS = ['SCRIPT', 'STYLE', 'NOSCRIPT', 'IFRAME', 'SVG', 'CANVAS', 'HEAD', 'META', 'LINK'];
+function extractAllTextNodes(rootElement, minLength = 20) {
+    const textNodes = [];
+    function traverse(node) {
+        if (!node || EXCLUDE_TAGS.includes(node.nodeName)) return;
+        if (node.nodeType === Node.TEXT_NODE) {
+            const text = node.textContent.trim();
+            if (text.length >= minLength) {
+                // Skip nodes already queued/in-progress, or already translated to the same text.
+                if (node.__xpInProgress === true) return;
+                if (node.__xpTranslated === true && node.__xpTranslatedText === text) return;
+                textNodes.push(node);
+            }
+        } else {
+            for (const child of node.childNodes) {
+                traverse(child);
+            }
+        }
+    }
+    traverse(rootElement);
+    return textNodes;
+}
+const pendingTranslations = {};
+const BATCH_SIZE = 20;
+const BATCH_TIMEOUT_MS = 10000;
+const MUTATION_DEBOUNCE_MS = 250;
+// Two lanes: nodes in the viewport go first, then nodes within a screen of it.
+const visibleQueue = [];
+const nearQueue = [];
+const NEAR_MARGIN = '100% 0px';
+// Batches awaiting results; the bridge answers asynchronously, so several can overlap.
+const MAX_IN_FLIGHT = Math.max(1, CONFIG.maxInFlight || 1);
+let inFlight = 0;
+function releaseBatch(batchId) {
+    const rec = pendingTranslations[batchId];
+    if (!rec) return;
+    clearTimeout(rec.timeoutId);
+    for (const node of rec.nodes) { node.__xpInProgress = false; }
+    delete pendingTranslations[batchId];
+    inFlight--;
+}
+// Text nodes waiting for their parent element to approach the viewport. Entries leave when the
+// element intersects, or when the page removes it (forgetDetached).
+const waitingByElement = new Map();
+const viewportObserver = ('IntersectionObserver' in window) ? new IntersectionObserver(entries => {
+    // Entry rects come with the callback, so ordering forces no extra layout.
+    entries.filter(e => e.isIntersecting)
+        .sort((a, b) => a.boundingClientRect.top - b.boundingClientRect.top)
+        .forEach(entry => {
+            const el = entry.target;
+            const nodes = waitingByElement.get(el);
+            viewportObserver.unobserve(el);
+            waitingByElement.delete(el);
+            if (!nodes) return;
+            const r = entry.boundingClientRect;
+            const lane = (r.bottom > 0 && r.top < window.innerHeight) ? visibleQueue : nearQueue;
+            for (const node of nodes) lane.push(node);
+        });
+    pump();
+}, { rootMargin: NEAR_MARGIN }) : null;
+function enqueue(textNodes) {
+    for (const node of textNodes) {
+        node.__xpInProgress = true;
+        const el = node.parentElement;
+        if (!viewportObserver || !el) {
+            nearQueue.push(node);
+            continue;
+        }
+        let nodes = waitingByElement.get(el);
+        if (!nodes) {
+            nodes = [];
+            waitingByElement.set(el, nodes);
+            viewportObserver.observe(el);
+        }
+        nodes.push(node);
+    }
+    pump();
+}
+// Removed elements never intersect again; unobserve them so the page can free them.
+function forgetDetached() {
+    for (const [el, nodes] of waitingByElement) {
+        if (el.isConnected) continue;
+        viewportObserver.unobserve(el);
+        waitingByElement.delete(el);
+        for (const node of nodes) node.__xpInProgress = false;
+    }
+}
+// Keeps up to MAX_IN_FLIGHT batches outstanding while nodes are queued.
+function pump() {
+    while (inFlight < MAX_IN_FLIGHT && sendNextBatch()) { }
+}
+function sendNextBatch() {
+    // Drop nodes the page removed while they were queued.
+    const nodes = [];
+    while ((visibleQueue.length > 0 || nearQueue.length > 0) && nodes.length < BATCH_SIZE) {
+        const node = visibleQueue.length > 0 ? visibleQueue.shift() : nearQueue.shift();
+        if (node.isConnected) nodes.push(node); else node.__xpInProgress = false;
+    }
+    if (nodes.length === 0) return false;
+    const texts = nodes.map(node => node.textContent.trim());
+    const batchId = 'batch_' + Math.random().toString(36).substr(2);
+    const timeoutId = setTimeout(() => {
+        releaseBatch(batchId);
+        retryLater(nodes);
+        pump();
+    }, BATCH_TIMEOUT_MS);
+    pendingTranslations[batchId] = { nodes: nodes, texts: texts, timeoutId: timeoutId };
+    inFlight++;
+    try {
+        window.XPTranslateTextBridge.translateBatchFromJs(batchId, JSON.stringify(texts), location.href, CONFIG.src, CONFIG.tgt, !!CONFIG.gemini, !!CONFIG.gapi);
+    } catch(err) {
+        console.error('[XPTranslate] translateBatchFromJs error =>', err);
+        releaseBatch(batchId);
+        return false;
+    }
+    return true;
+}
+// Nodes that failed (bridge saturated, timed out, no provider answered) are sent again after a
+// growing back-off, a few times at most.
+const RETRY_DELAY_MS = 3000;
+const MAX_RETRIES = 3;
+function retryLater(nodes) {
+    const retry = nodes.filter(node => node.isConnected && (node.__xpRetries || 0) < MAX_RETRIES);
+    if (retry.length === 0) return;
+    const attempt = Math.max(...retry.map(node => node.__xpRetries || 0)) + 1;
+    // Held as in progress meanwhile, so mutation scans do not queue them twice.
+    for (const node of retry) { node.__xpRetries = (node.__xpRetries || 0) + 1; node.__xpInProgress = true; }
+    setTimeout(() => {
+        for (const node of retry) node.__xpInProgress = false;
+        enqueue(retry.filter(node => node.isConnected));
+    }, RETRY_DELAY_MS * attempt);
+}
+function applyBatch(batchId, results) {
+    const record = pendingTranslations[batchId];
+    if (!record) {
+        console.warn('[XPTranslate] applyBatch => No record:', batchId);
+        return;
+    }
+    clearTimeout(record.timeoutId);
+    const changed = [];
+    const failed = [];
+    record.nodes.forEach((node, i) => {
+        const translatedText = results[i];
+        node.__xpInProgress = false;
+        try {
+            if (typeof translatedText !== 'string') {
+                // Failed: released unmarked, so it is translated on a later attempt.
+                failed.push(node);
+                return;
+            }
+            if (node.textContent.trim() !== record.texts[i]) {
+                // The page changed this node while the batch was in flight; translate the new text.
+                if (node.isConnected) changed.push(node);
+                return;
+            }
+            node.__xpTranslated = true;
+            node.__xpTranslatedText = translatedText.trim();
+            node.textContent = translatedText;
+        } catch(e) {
+            console.error('[XPTranslate] apply error =>', e);
+        }
+    });
+    delete pendingTranslations[batchId];
+    inFlight--;
+    console.log(`[XPTranslate] replaced batch => ${batchId}`, record.nodes.length);
+    if (changed.length > 0) {
+        for (const node of changed) { node.__xpInProgress = true; visibleQueue.push(node); }
+    }
+    retryLater(failed);
+}
+// After the initial pass, only added subtrees and edited text nodes are scanned.
+function observeMutations() {
+    const dirtyRoots = new Set();
+    let removed = false;
+    let timer = null;
+    const observer = new MutationObserver(mutations => {
+        for (const m of mutations) {
+            if (m.type === 'characterData') {
+                dirtyRoots.add(m.target);
+            } else {
+                for (const added of m.addedNodes) dirtyRoots.add(added);
+                if (m.removedNodes.length > 0) removed = true;
+            }
+        }
+        if ((dirtyRoots.size === 0 && !removed) || timer) return;
+        timer = setTimeout(() => {
+            timer = null;
+            if (removed && waitingByElement.size > 0) forgetDetached();
+            removed = false;
+            const found = [];
+            for (const root of dirtyRoots) {
+                if (root.isConnected) found.push(...extractAllTextNodes(root));
+            }
+            dirtyRoots.clear();
+            if (found.length > 0) enqueue(found);
+        }, MUTATION_DEBOUNCE_MS);
+    });
+    observer.observe(document.body, { childList: true, subtree: true, characterData: true });
+}
+// A revisited page is first translated from its stored snapshot in one pass; only the
+// remaining nodes go through the bridge.
+const SNAPSHOT_WAIT_MS = 500;
+let started = false;
+function start() {
+    if (started) return;
+    started = true;
+    enqueue(extractAllTextNodes(document.body));
+    observeMutations();
+}
+function applySnapshot(snapshot) {
+    let applied = 0;
+    if (snapshot) {
+        for (const node of extractAllTextNodes(document.body)) {
+            const translatedText = snapshot[node.textContent.trim()];
+            if (typeof translatedText !== 'string') continue;
+            node.__xpTranslated = true;
+            node.__xpTranslatedText = translatedText.trim();
+            node.textContent = translatedText;
+            applied++;
+        }
+    }
+    console.log('[XPTranslate] snapshot applied =>', applied);
+    start();
+}
+// Single entry point for the native side: everything that became ready within one frame
+// arrives as one array of messages and is written in one pass.
+window.__xpTranslate = {
+    apply: function(messages) {
+        for (const m of messages) {
+            if (m.type === 'batch') applyBatch(m.id, m.results);
+            else if (m.type === 'snapshot') applySnapshot(m.entries);
+        }
+        pump();
+    },
+    // Trigger sent by the native side on page finish; a no-op once the page has booted.
+    start: boot
+};
+let booted = false;
+function boot() {
+    if (booted || !document.body) return;
+    booted = true;
+    try {
+        window.XPTranslateTextBridge.requestSnapshot(location.href, CONFIG.src, CONFIG.tgt);
+        setTimeout(start, SNAPSHOT_WAIT_MS);
+    } catch(err) {
+        console.error('[XPTranslate] requestSnapshot error =>', err);
+        start();
+    }
+}
+// At document start there is no body yet; begin as soon as the DOM is parsed.
+if (document.readyState === 'loading') {
+    document.addEventListener('DOMContentLoaded', boot);
+} else {
+    boot();
+}
+})();
@@ -2,10 +2,12 @@ package tianci.dev.xptranslatetext;
 
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.view.View;
 import android.webkit.WebView;
 import android.widget.TextView;
 import android.widget.EditText;
@@ -31,13 +33,20 @@ import de.robv.android.xposed.callbacks.XC_LoadPackage;
 import de.robv.android.xposed.XSharedPreferences;
 import tianci.dev.xptranslatetext.rules.Telegram;
 import tianci.dev.xptranslatetext.translate.MultiSegmentTranslateTask;
+import tianci.dev.xptranslatetext.translate.NumericTemplates;
 import tianci.dev.xptranslatetext.translate.Segment;
 import tianci.dev.xptranslatetext.translate.SpanSpec;
+import tianci.dev.xptranslatetext.translate.WebViewRuntime;
 import tianci.dev.xptranslatetext.translate.WebViewTranslationBridge;
+import tianci.dev.xptranslatetext.view.AdjacentPrefetcher;
+import tianci.dev.xptranslatetext.view.ChurnDetector;
+import tianci.dev.xptranslatetext.view.PendingLayoutRefresher;
+import tianci.dev.xptranslatetext.view.ViewportScheduler;
 
 /**
  * Xposed entry point. Hooks TextView, StaticLayout, WebView, and custom setText methods
  * to inject a translation flow while preserving spans and minimizing UI jank.
+ * Text set on views that are not visible is translated only once they come on screen.
  * Skips translation for editable content (EditText/Editable) to avoid altering user input.
  */
 public class HookMain implements IXposedHookLoadPackage {
@@ -47,6 +56,12 @@ public class HookMain implements IXposedHookLoadPackage {
     public static final String TRANSLATION_IN_PROGRESS_KEY = "xp_translate_text:in_progress";
     public static final String TRANSLATION_IN_PROGRESS_TEXT_KEY = "xp_translate_text:in_progress_text";
 
+    private static final String WEBVIEW_BRIDGE_KEY = "xp_translate_text:webview_bridge";
+    private static final String WEBVIEW_RUNTIME_INSTALLED_KEY = "xp_translate_text:webview_runtime_installed";
+
+    // Synchronous budget for StaticLayout misses; anything slower is re-rendered after prefetch.
+    private static final long STATIC_LAYOUT_QUICK_WAIT_MS = 250;
+
     @Override
     public void handleLoadPackage(final XC_LoadPackage.LoadPackageParam lpparam) throws Throwable {
         if (lpparam.packageName.equals("tianci.dev.xptranslatetext")) return;
@@ -74,11 +89,13 @@ public class HookMain implements IXposedHookLoadPackage {
 
         boolean useFallbackGemini = prefs.getBoolean("fallback_gemini", false);
         boolean useFallbackGApi = prefs.getBoolean("fallback_free_gapi", false);
+        int webViewMaxInFlight = prefs.getInt("webview_max_in_flight", WebViewTranslationBridge.DEFAULT_MAX_IN_FLIGHT);
 
         hookTextView(lpparam, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
         hookStaticLayout(lpparam, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
         hookAllCustomSetTextClasss(lpparam, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
-        hookWebView(lpparam, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
+        hookWebView(lpparam, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi, webViewMaxInFlight);
+        AdjacentPrefetcher.install(lpparam, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
 
         XposedHelpers.findAndHookMethod(
                 "android.app.Activity",
@@ -102,9 +119,11 @@ public class HookMain implements IXposedHookLoadPackage {
      * Replace StaticLayout.Builder.build():
      * - Try synchronous replacement from memory/DB (no network, no blocking beyond local DB)
      * - If unresolved, try quick local-service translation (background I/O + short await on UI)
-     * - If still unresolved, prefetch async and return original layout
+     * - If still unresolved, prefetch async and return original layout; the owning View is
+     *   re-rendered by {@link PendingLayoutRefresher} once the prefetch lands
      */
     private void hookStaticLayout(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang, boolean useFallbackGemini, boolean useFallbackGApi) {
+        PendingLayoutRefresher.install(lpparam);
         try {
             XposedHelpers.findAndHookMethod(
                     "android.text.StaticLayout$Builder",
@@ -169,13 +188,7 @@ public class HookMain implements IXposedHookLoadPackage {
                                 }
 
                                 // Build segments (preserve spans)
-                                List<Segment> segments;
-                                if (piece instanceof Spanned) {
-                                    segments = parseAllSegments((Spanned) piece);
-                                } else {
-                                    segments = new ArrayList<>();
-                                    segments.add(new Segment(0, piece.length(), piece.toString()));
-                                }
+                                List<Segment> segments = buildSegments(piece);
 
                                 // Deduplicate per-builder for the same piece while a translation is in-progress
                                 if (isDuplicateInProgress(builder, piece)) {
@@ -192,7 +205,7 @@ public class HookMain implements IXposedHookLoadPackage {
                                     // 2) quick local-service sync (short wait) if not all resolved
                                     if (!allResolved) {
                                         boolean nowResolved = MultiSegmentTranslateTask.quickTranslateUnresolvedSegmentsViaLocal(
-                                                segments, finalSourceLang, finalTargetLang, 1000 /*ms*/);
+                                                segments, finalSourceLang, finalTargetLang, STATIC_LAYOUT_QUICK_WAIT_MS);
                                         if (nowResolved) {
                                             allResolved = true;
                                         }
@@ -220,8 +233,17 @@ public class HookMain implements IXposedHookLoadPackage {
                                         XposedBridge.log("[StaticLayout.Builder] applied translated text synchronously.");
                                         return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
                                     } else {
-                                        // 3) prefetch async for next time
-                                        MultiSegmentTranslateTask.prefetchSegmentsAsync(segments, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
+                                        // 3) prefetch async, then re-render whichever view draws this text
+                                        final String pendingKey = piece.toString();
+                                        PendingLayoutRefresher.markPending(text, pendingKey);
+                                        MultiSegmentTranslateTask.prefetchSegmentsAsync(segments, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi, () -> {
+                                            // Only re-render when the next build() will actually hit; a failed prefetch would loop.
+                                            if (MultiSegmentTranslateTask.fillSegmentsFromCacheOrDbOrNoNeed(segments, finalSourceLang, finalTargetLang)) {
+                                                PendingLayoutRefresher.onPrefetchCompleted(pendingKey);
+                                            } else {
+                                                PendingLayoutRefresher.discard(pendingKey);
+                                            }
+                                        });
                                         return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
                                     }
                                 } finally {
@@ -239,7 +261,7 @@ public class HookMain implements IXposedHookLoadPackage {
         }
     }
 
-    private void hookWebView(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang, boolean useFallbackGemini, boolean useFallbackGApi) {
+    private void hookWebView(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang, boolean useFallbackGemini, boolean useFallbackGApi, int maxInFlight) {
         XposedHelpers.findAndHookConstructor(
                 "android.webkit.WebView",
                 lpparam.classLoader,
@@ -255,10 +277,52 @@ public class HookMain implements IXposedHookLoadPackage {
                         WebView.setWebContentsDebuggingEnabled(true);
                         XposedBridge.log("[WebView Constructor] => WebContentsDebuggingEnabled set to true.");
 
+                        WebViewTranslationBridge bridge = new WebViewTranslationBridge(webView, maxInFlight);
+                        XposedHelpers.setAdditionalInstanceField(webView, WEBVIEW_BRIDGE_KEY, bridge);
                         webView.addJavascriptInterface(
-                                new WebViewTranslationBridge(webView),
+                                bridge,
                                 "XPTranslateTextBridge"
                         );
+
+                        String runtime = WebViewRuntime.script(finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi, maxInFlight);
+                        if (runtime != null && WebViewRuntime.installAtDocumentStart(webView, runtime)) {
+                            XposedHelpers.setAdditionalInstanceField(webView, WEBVIEW_RUNTIME_INSTALLED_KEY, Boolean.TRUE);
+                        }
+                    }
+                }
+        );
+
+        XposedHelpers.findAndHookMethod(
+                "android.webkit.WebView",
+                lpparam.classLoader,
+                "destroy",
+                new XC_MethodHook() {
+                    @Override
+                    protected void beforeHookedMethod(MethodHookParam param) {
+                        Object bridge = XposedHelpers.getAdditionalInstanceField(param.thisObject, WEBVIEW_BRIDGE_KEY);
+                        if (bridge instanceof WebViewTranslationBridge) {
+                            ((WebViewTranslationBridge) bridge).destroy();
+                        }
+                    }
+                }
+        );
+
+        XposedHelpers.findAndHookMethod(
+                "android.webkit.WebViewClient",
+                lpparam.classLoader,
+                "onPageStarted",
+                WebView.class,
+                String.class,
+                Bitmap.class,
+                new XC_MethodHook() {
+                    @Override
+                    protected void beforeHookedMethod(MethodHookParam param) {
+                        if (param.args[0] == null) return;
+                        Object bridge = XposedHelpers.getAdditionalInstanceField(param.args[0], WEBVIEW_BRIDGE_KEY);
+                        if (bridge instanceof WebViewTranslationBridge) {
+                            XposedBridge.log("onPageStarted => " + param.args[1]);
+                            ((WebViewTranslationBridge) bridge).cancelOtherPages((String) param.args[1]);
+                        }
                     }
                 }
         );
@@ -279,7 +343,15 @@ public class HookMain implements IXposedHookLoadPackage {
 
                         XposedBridge.log("onPageFinished => " + url);
 
-                        String jsCode = buildExtractTextJS(finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
+                        // Installed at document start: the runtime is already there, just make sure it runs.
+                        // Otherwise inject the cached runtime now.
+                        String jsCode;
+                        if (XposedHelpers.getAdditionalInstanceField(webView, WEBVIEW_RUNTIME_INSTALLED_KEY) != null) {
+                            jsCode = WebViewRuntime.TRIGGER;
+                        } else {
+                            jsCode = WebViewRuntime.script(finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi, maxInFlight);
+                            if (jsCode == null) return;
+                        }
 
                         webView.post(() -> {
                             webView.evaluateJavascript(jsCode, null);
@@ -334,31 +406,8 @@ public class HookMain implements IXposedHookLoadPackage {
                             return;
                         }
 
-                        int translationId = atomicIdGenerator.getAndIncrement();
-                        Object target = param.thisObject;
-                        markTranslationId(target, translationId);
-
-                        List<Segment> segments;
-                        if (originalText instanceof Spanned) {
-                            segments = parseAllSegments((Spanned) originalText);
-                        } else {
-                            segments = new ArrayList<>();
-                            segments.add(new Segment(0, originalText.length(), originalText.toString()));
-                        }
-
-                        // Mark in-progress before dispatching async work
-                        setInProgress(param.thisObject, originalText);
-
                         // async translate + second call to original setText later
-                        MultiSegmentTranslateTask.translateSegmentsAsync(
-                                param,
-                                translationId,
-                                segments,
-                                finalSourceLang,
-                                finalTargetLang,
-                                useFallbackGemini,
-                                useFallbackGApi
-                        );
+                        dispatchTranslation(param, originalText, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
                     }
                 }
         );
@@ -442,29 +491,7 @@ public class HookMain implements IXposedHookLoadPackage {
 
                                         XposedBridge.log(String.format("[ translate ] %s string => %s", param.thisObject.getClass(), originalText));
 
-                                        int translationId = atomicIdGenerator.getAndIncrement();
-                                        markTranslationId(param.thisObject, translationId);
-
-                                        List<Segment> segments;
-                                        if (originalText instanceof Spanned) {
-                                            segments = parseAllSegments((Spanned) originalText);
-                                        } else {
-                                            segments = new ArrayList<>();
-                                            segments.add(new Segment(0, originalText.length(), originalText.toString()));
-                                        }
-
-                                        // Mark in-progress before dispatching async work
-                                        setInProgress(param.thisObject, originalText);
-
-                                        MultiSegmentTranslateTask.translateSegmentsAsync(
-                                                param,
-                                                translationId,
-                                                segments,
-                                                finalSourceLang,
-                                                finalTargetLang,
-                                                useFallbackGemini,
-                                                useFallbackGApi
-                                        );
+                                        dispatchTranslation(param, originalText, finalSourceLang, finalTargetLang, useFallbackGemini, useFallbackGApi);
                                     }
                                 });
                                 XposedBridge.log(String.format("Hook custom setText class => [%s] ", className));
@@ -516,6 +543,72 @@ public class HookMain implements IXposedHookLoadPackage {
         }
     }
 
+    /**
+     * Starts translation for a setText-like call. Views that are detached, hidden or off-screen
+     * are parked in {@link ViewportScheduler} and translated once they become visible; the
+     * translation id is claimed right away so older in-flight results for the view expire.
+     * Rapidly changing targets are rendered from a numeric template, or translated once they
+     * settle (see {@link ChurnDetector}).
+     */
+    private static void dispatchTranslation(XC_MethodHook.MethodHookParam param,
+                                            CharSequence originalText,
+                                            String srcLang,
+                                            String tgtLang,
+                                            boolean useFallbackGemini,
+                                            boolean useFallbackGApi) {
+        final Object target = param.thisObject;
+        final int translationId = atomicIdGenerator.getAndIncrement();
+        markTranslationId(target, translationId);
+
+        ChurnDetector.Verdict verdict = ChurnDetector.record(target, originalText);
+        if (verdict != ChurnDetector.Verdict.STEADY) {
+            // Live value: serve it from a learned numeric template when possible, synchronously.
+            String templated = originalText instanceof Spanned
+                    ? null
+                    : NumericTemplates.render(srcLang, tgtLang, originalText.toString());
+            if (templated != null) {
+                ChurnDetector.cancel(target);
+                if (target instanceof View) ViewportScheduler.cancel((View) target);
+                param.args[0] = templated;
+                return;
+            }
+        } else {
+            ChurnDetector.cancel(target);
+        }
+
+        // Mark in-progress before dispatching async work
+        setInProgress(target, originalText);
+
+        Runnable start = () -> MultiSegmentTranslateTask.translateSegmentsAsync(
+                param,
+                translationId,
+                buildSegments(originalText),
+                srcLang,
+                tgtLang,
+                useFallbackGemini,
+                useFallbackGApi
+        );
+        Runnable scheduled = target instanceof View
+                ? () -> ViewportScheduler.runWhenVisible((View) target, start)
+                : start;
+
+        if (verdict != ChurnDetector.Verdict.STEADY) {
+            ChurnDetector.debounce(target, scheduled);
+        } else {
+            scheduled.run();
+        }
+    }
+
+    /** Splits text into span-preserving segments; plain text becomes a single segment. */
+    public static List<Segment> buildSegments(CharSequence text) {
+        if (text instanceof Spanned) {
+            return parseAllSegments((Spanned) text);
+        }
+        List<Segment> segments = new ArrayList<>();
+        segments.add(new Segment(0, text.length(), text.toString()));
+        return segments;
+    }
+
     private static void markTranslationId(Object target, int translationId) {
         try {
             XposedHelpers.setAdditionalInstanceField(target, TRANSLATION_ID_KEY, translationId);
@@ -657,117 +750,4 @@ public class HookMain implements IXposedHookLoadPackage {
 
         return ssb;
     }
-
-    private String buildExtractTextJS(String finalSourceLang, String finalTargetLang, boolean useFallbackGemini, boolean useFallbackGApi) {
-        return ""
-                + "const EXCLUDE_TAGS = ['SCRIPT', 'STYLE', 'NOSCRIPT', 'IFRAME', 'SVG', 'CANVAS', 'HEAD', 'META', 'LINK'];\n"
-                + "function extractAllTextNodes(rootElement, minLength = 20) {\n"
-                + "    const textNodes = [];\n"
-                + "    function traverse(node) {\n"
-                + "        if (!node || EXCLUDE_TAGS.includes(node.nodeName)) return;\n"
-                + "        if (node.nodeType === Node.TEXT_NODE) {\n"
-                + "            const text = node.textContent.trim();\n"
-                + "            if (text.length >= minLength) {\n"
-                + "                // Skip nodes already in-progress, or already translated to the same text.\n"
-                + "                if (node.__xpInProgress === true) return;\n"
-                + "                if (node.__xpTranslated === true && node.__xpTranslatedText === text) return;\n"
-                + "                textNodes.push(node);\n"
-                + "            }\n"
-                + "        } else {\n"
-                + "            for (const child of node.childNodes) {\n"
-                + "                traverse(child);\n"
-                + "            }\n"
-                + "        }\n"
-                + "    }\n"
-                + "    traverse(rootElement);\n"
-                + "    return textNodes;\n"
-                + "}\n"
-                + "const pendingTranslations = {};\n"
-                + "let runningTranslate = false;\n"
-                + "function mainTranslateFlow() {\n"
-                + "    if (runningTranslate) return;\n"
-                + "    runningTranslate = true;\n"
-                + "    let textNodes = extractAllTextNodes(document.body);\n"
-                + "    textNodes = textNodes.map(node => {\n"
-                + "        let top = Number.MAX_SAFE_INTEGER;\n"
-                + "        if (node.parentElement) {\n"
-                + "            try {\n"
-                + "                const rect = node.parentElement.getBoundingClientRect();\n"
-                + "                top = rect.top;\n"
-                + "            } catch(e){}\n"
-                + "        }\n"
-                + "        return { node, top };\n"
-                + "    }).sort((a, b) => a.top - b.top)\n"
-                + "      .map(item => item.node);\n"
-                + "    let currentIndex = 0;\n"
-                + "    function processNextNode() {\n"
-                + "        if (currentIndex >= textNodes.length) {\n"
-                + "            console.log('[XPTranslate] Finished processing.');\n"
-                + "            runningTranslate = false;\n"
-                + "            return;\n"
-                + "        }\n"
-                + "        const node = textNodes[currentIndex++];\n"
-                + "        const originalText = node.textContent.trim();\n"
-                + "        const requestId = 'req_' + Math.random().toString(36).substr(2);\n"
-                + "        pendingTranslations[requestId] = { node: node, timeoutId: null, originalText: originalText };\n"
-                + "        node.__xpInProgress = true;\n"
-                + "        const TIMEOUT_MS = 800;\n"
-                + "        const timeoutId = setTimeout(() => {\n"
-                + "            const rec = pendingTranslations[requestId];\n"
-                + "            if (rec && rec.node) { rec.node.__xpInProgress = false; }\n"
-                + "            delete pendingTranslations[requestId];\n"
-                + "            processNextNode();\n"
-                + "        }, TIMEOUT_MS);\n"
-                + "        pendingTranslations[requestId].timeoutId = timeoutId;\n"
-                + "        try {\n"
-                + "            window.XPTranslateTextBridge.translateFromJs(requestId, originalText, '" + finalSourceLang + "', '" + finalTargetLang + "', " + useFallbackGemini + ", " + useFallbackGApi + ");\n"
-                + "        } catch(err) {\n"
-                + "            console.error('[XPTranslate] translateFromJs error =>', err);\n"
-                + "            clearTimeout(timeoutId);\n"
-                + "            try { if (pendingTranslations[requestId]) pendingTranslations[requestId].node.__xpInProgress = false; } catch(e){}\n"
-                + "            delete pendingTranslations[requestId];\n"
-                + "            processNextNode();\n"
-                + "        }\n"
-                + "    }\n"
-                + "    window.__xpTranslateProcessNextNode = processNextNode;\n"
-                + "    processNextNode();\n"
-                + "}\n"
-                + "window.onXPTranslateCompleted = function(requestId, translatedText) {\n"
-                + "    const record = pendingTranslations[requestId];\n"
-                + "    if (!record) {\n"
-                + "        console.warn('[XPTranslate] onXPTranslateCompleted => No record:', requestId);\n"
-                + "        return;\n"
-                + "    }\n"
-                + "    if (record.timeoutId) {\n"
-                + "        clearTimeout(record.timeoutId);\n"
-                + "    }\n"
-                + "    try {\n"
-                + "        record.node.textContent = translatedText;\n"
-                + "        record.node.__xpTranslated = true;\n"
-                + "        record.node.__xpTranslatedText = translatedText;\n"
-                + "        record.node.__xpInProgress = false;\n"
-                + "    } catch(e) {\n"
-                + "        console.error('[XPTranslate] apply error =>', e);\n"
-                + "    }\n"
-                + "    delete pendingTranslations[requestId];\n"
-                + "    console.log(`[XPTranslate] replaced => ${requestId}`, translatedText);\n"
-                + "    if (typeof window.__xpTranslateProcessNextNode === 'function') {\n"
-                + "        window.__xpTranslateProcessNextNode();\n"
-                + "    }\n"
-                + "};\n"
-                + "function watchScrollAndTranslate() {\n"
-                + "    let timer = null;\n"
-                + "    window.addEventListener('scroll', () => {\n"
-                + "        if (timer) clearTimeout(timer);\n"
-                + "        timer = setTimeout(() => {\n"
-                + "            const distToBottom = document.documentElement.scrollHeight - window.scrollY - window.innerHeight;\n"
-                + "            if (distToBottom < 300) {\n"
-                + "                mainTranslateFlow();\n"
-                + "            }\n"
-                + "        }, 400);\n"
-                + "    });\n"
-                + "}\n"
-                + "mainTranslateFlow();\n"
-                + "watchScrollAndTranslate();\n";
-    }
 }
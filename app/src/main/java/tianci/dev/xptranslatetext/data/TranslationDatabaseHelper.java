@@ -6,13 +6,20 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.content.ContentValues;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
- * Tiny SQLite helper to cache translation results by a stable cache key.
+ * Tiny SQLite helper to cache translation results by a stable cache key,
+ * plus per-page snapshots of WebView text-node translations. Snapshots are bounded: pages
+ * not written for {@link #SNAPSHOT_MAX_AGE_MS}, pages beyond the {@link #SNAPSHOT_MAX_PAGES}
+ * most recently written, and the oldest entries past {@link #SNAPSHOT_MAX_ENTRIES_PER_PAGE}
+ * of a page are deleted on every write and whenever the database is opened.
  */
 public class TranslationDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "xp_translation_text_cache.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     private static final String TABLE_NAME = "translations";
 
     private static final String COL_CACHE_KEY = "cache_key";
@@ -24,6 +31,24 @@ public class TranslationDatabaseHelper extends SQLiteOpenHelper {
                     + COL_TRANSLATED_TEXT + " TEXT"
                     + ")";
 
+    private static final String SNAPSHOT_TABLE_NAME = "page_snapshots";
+    private static final String COL_PAGE_KEY = "page_key";
+    private static final String COL_SOURCE_TEXT = "source_text";
+    private static final String COL_UPDATED_AT = "updated_at";
+
+    static final int SNAPSHOT_MAX_PAGES = 200;
+    static final int SNAPSHOT_MAX_ENTRIES_PER_PAGE = 1000;
+    static final long SNAPSHOT_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final String SQL_CREATE_SNAPSHOT_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + SNAPSHOT_TABLE_NAME + " ("
+                    + COL_PAGE_KEY + " TEXT NOT NULL,"
+                    + COL_SOURCE_TEXT + " TEXT NOT NULL,"
+                    + COL_TRANSLATED_TEXT + " TEXT,"
+                    + COL_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0,"
+                    + "PRIMARY KEY (" + COL_PAGE_KEY + ", " + COL_SOURCE_TEXT + ")"
+                    + ")";
+
     public TranslationDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -31,11 +56,24 @@ public class TranslationDatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_TABLE);
+        db.execSQL(SQL_CREATE_SNAPSHOT_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL(SQL_CREATE_SNAPSHOT_TABLE);
+        } else if (oldVersion < 3) {
+            // Existing rows count as written now, so they get the full age limit.
+            db.execSQL("ALTER TABLE " + SNAPSHOT_TABLE_NAME + " ADD COLUMN " + COL_UPDATED_AT
+                    + " INTEGER NOT NULL DEFAULT " + System.currentTimeMillis());
+        }
+    }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) pruneSnapshots(db);
     }
 
     /** Look up a translation by cache key, or null if absent. */
@@ -71,4 +109,68 @@ public class TranslationDatabaseHelper extends SQLiteOpenHelper {
 
         db.insertWithOnConflict(TABLE_NAME, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
     }
+
+    /** All stored source-text to translation pairs for a page key (empty if none). */
+    public Map<String, String> getPageSnapshot(String pageKey) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Map<String, String> snapshot = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.query(
+                    SNAPSHOT_TABLE_NAME,
+                    new String[]{COL_SOURCE_TEXT, COL_TRANSLATED_TEXT},
+                    COL_PAGE_KEY + "=?",
+                    new String[]{pageKey},
+                    null, null, null
+            );
+            while (cursor != null && cursor.moveToNext()) {
+                snapshot.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Insert or replace snapshot entries for a page key in one transaction, then trims the
+     * snapshots to their limits.
+     */
+    public void putPageSnapshotEntries(String pageKey, Map<String, String> entries) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                ContentValues cv = new ContentValues();
+                cv.put(COL_PAGE_KEY, pageKey);
+                cv.put(COL_SOURCE_TEXT, e.getKey());
+                cv.put(COL_TRANSLATED_TEXT, e.getValue());
+                cv.put(COL_UPDATED_AT, now);
+                db.insertWithOnConflict(SNAPSHOT_TABLE_NAME, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            // Entries past the per-page limit, oldest first (infinite-scroll pages keep growing).
+            db.execSQL("DELETE FROM " + SNAPSHOT_TABLE_NAME + " WHERE " + COL_PAGE_KEY + "=? AND rowid NOT IN ("
+                            + "SELECT rowid FROM " + SNAPSHOT_TABLE_NAME + " WHERE " + COL_PAGE_KEY + "=?"
+                            + " ORDER BY " + COL_UPDATED_AT + " DESC LIMIT " + SNAPSHOT_MAX_ENTRIES_PER_PAGE + ")",
+                    new Object[]{pageKey, pageKey});
+            pruneSnapshots(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Deletes expired pages and the least recently written pages beyond the page limit. */
+    private static void pruneSnapshots(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + SNAPSHOT_TABLE_NAME + " WHERE " + COL_PAGE_KEY + " IN ("
+                        + "SELECT " + COL_PAGE_KEY + " FROM " + SNAPSHOT_TABLE_NAME
+                        + " GROUP BY " + COL_PAGE_KEY + " HAVING MAX(" + COL_UPDATED_AT + ") < ?)",
+                new Object[]{System.currentTimeMillis() - SNAPSHOT_MAX_AGE_MS});
+        db.execSQL("DELETE FROM " + SNAPSHOT_TABLE_NAME + " WHERE " + COL_PAGE_KEY + " NOT IN ("
+                + "SELECT " + COL_PAGE_KEY + " FROM " + SNAPSHOT_TABLE_NAME
+                + " GROUP BY " + COL_PAGE_KEY + " ORDER BY MAX(" + COL_UPDATED_AT + ") DESC LIMIT " + SNAPSHOT_MAX_PAGES + ")");
+    }
 }
@@ -0,0 +1,157 @@
+package tianci.dev.xptranslatetext.service;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing for the abstract-namespace socket between hooked apps and
+ * {@link LocalTranslationService}. No TLS, HTTP or JSON: the traffic never leaves the device,
+ * and many requests share one connection, matched by request id.
+ *
+ * Every frame is {@code int length} followed by {@code length} bytes (big-endian):
+ * <pre>
+ * request:  byte type=REQUEST, int id, byte priority, int budgetMs, short srcLen, src, short dstLen, dst, int textLen, text
+ * response: byte type=RESPONSE, int id, byte status, int textLen, text (translation or error message)
+ * </pre>
+ * Strings are UTF-8. {@code budgetMs} is how long the client waits for the answer (0: no limit);
+ * the server drops requests that are still queued when it runs out.
+ */
+public final class LocalSocketProtocol {
+
+    /** Abstract-namespace name; no file, only reachable through the kernel. */
+    public static final String SOCKET_NAME = "tianci.dev.xptranslatetext.translate";
+
+    public static final byte TYPE_REQUEST = 1;
+    public static final byte TYPE_RESPONSE = 2;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    public static final byte STATUS_BUSY = 2;
+
+    /** Synchronous UI path, a few hundred milliseconds of budget. */
+    public static final byte PRIORITY_QUICK = 0;
+    /** Visible text translated in the background. */
+    public static final byte PRIORITY_FOREGROUND = 1;
+    /** Prefetch and other speculative work. */
+    public static final byte PRIORITY_BACKGROUND = 2;
+
+    static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private LocalSocketProtocol() { }
+
+    public static final class Request {
+        public final int id;
+        public final byte priority;
+        public final int budgetMs;
+        public final String src;
+        public final String dst;
+        public final String text;
+
+        public Request(int id, byte priority, int budgetMs, String src, String dst, String text) {
+            this.id = id;
+            this.priority = priority;
+            this.budgetMs = budgetMs;
+            this.src = src;
+            this.dst = dst;
+            this.text = text;
+        }
+    }
+
+    public static final class Response {
+        public final int id;
+        public final byte status;
+        public final String text;
+
+        public Response(int id, byte status, String text) {
+            this.id = id;
+            this.status = status;
+            this.text = text;
+        }
+    }
+
+    public static byte[] encodeRequest(Request r) {
+        byte[] src = utf8(r.src);
+        byte[] dst = utf8(r.dst);
+        byte[] text = utf8(r.text);
+        int len = 1 + 4 + 1 + 4 + 2 + src.length + 2 + dst.length + 4 + text.length;
+        ByteBuffer b = ByteBuffer.allocate(4 + len);
+        b.putInt(len).put(TYPE_REQUEST).putInt(r.id).put(r.priority).putInt(r.budgetMs);
+        b.putShort((short) src.length).put(src);
+        b.putShort((short) dst.length).put(dst);
+        b.putInt(text.length).put(text);
+        return b.array();
+    }
+
+    public static byte[] encodeResponse(Response r) {
+        byte[] text = utf8(r.text);
+        int len = 1 + 4 + 1 + 4 + text.length;
+        ByteBuffer b = ByteBuffer.allocate(4 + len);
+        b.putInt(len).put(TYPE_RESPONSE).putInt(r.id).put(r.status);
+        b.putInt(text.length).put(text);
+        return b.array();
+    }
+
+    /**
+     * Reads one frame body (without its length prefix).
+     *
+     * @throws EOFException when the peer closed the connection between frames.
+     */
+    public static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len <= 0 || len > MAX_FRAME_BYTES) throw new IOException("bad frame length " + len);
+        byte[] body = new byte[len];
+        in.readFully(body);
+        return ByteBuffer.wrap(body);
+    }
+
+    /** @throws IOException on a truncated or malformed frame; any peer can send one. */
+    public static Request decodeRequest(ByteBuffer b) throws IOException {
+        need(b, 1 + 4 + 1 + 4 + 2);
+        if (b.get() != TYPE_REQUEST) throw new IOException("not a request");
+        int id = b.getInt();
+        byte priority = b.get();
+        int budgetMs = b.getInt();
+        String src = readString(b, b.getShort() & 0xffff);
+        need(b, 2);
+        String dst = readString(b, b.getShort() & 0xffff);
+        need(b, 4);
+        String text = readString(b, b.getInt());
+        return new Request(id, priority, budgetMs, src, dst, text);
+    }
+
+    /** @throws IOException on a truncated or malformed frame. */
+    public static Response decodeResponse(ByteBuffer b) throws IOException {
+        need(b, 1 + 4 + 1 + 4);
+        if (b.get() != TYPE_RESPONSE) throw new IOException("not a response");
+        int id = b.getInt();
+        byte status = b.get();
+        String text = readString(b, b.getInt());
+        return new Response(id, status, text);
+    }
+
+    /** Frames are written whole under the caller's lock, so writers never interleave. */
+    public static void writeFrame(OutputStream out, byte[] frame) throws IOException {
+        out.write(frame);
+        out.flush();
+    }
+
+    // ByteBuffer would throw the unchecked BufferUnderflowException, which kills the reader thread.
+    private static void need(ByteBuffer b, int bytes) throws IOException {
+        if (b.remaining() < bytes) throw new IOException("truncated frame");
+    }
+
+    private static String readString(ByteBuffer b, int len) throws IOException {
+        if (len < 0 || len > b.remaining()) throw new IOException("bad string length " + len);
+        String s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+        b.position(b.position() + len);
+        return s;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+}
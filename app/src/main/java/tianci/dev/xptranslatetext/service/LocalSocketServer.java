@@ -0,0 +1,170 @@
+package tianci.dev.xptranslatetext.service;
+
+import android.content.pm.PackageManager;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Abstract-namespace socket endpoint speaking {@link LocalSocketProtocol}.
+ *
+ * Each hooked process keeps one connection open and multiplexes its requests over it, so a
+ * reader thread per connection is cheap; the translations themselves are queued on the shared
+ * {@link RequestScheduler} under the request's priority and the caller's package, and their
+ * responses are written back in completion order.
+ *
+ * The socket is intentionally open to every app on the device, like the HTTPS endpoint on
+ * localhost: hooked apps run under their own uids, and the module cannot see its scope from
+ * here. The peer's kernel credentials only name the caller's scheduler lane; they are not
+ * access control.
+ */
+final class LocalSocketServer {
+
+    private static final String TAG = "LocalTranslation";
+
+    interface Handler {
+        /** Runs on the worker pool; {@code deadline} as in {@link RequestScheduler#submit}. */
+        LocalSocketProtocol.Response handle(LocalSocketProtocol.Request request, String caller, long deadline);
+    }
+
+    private final PackageManager packageManager;
+    private final RequestScheduler workers;
+    private final Handler handler;
+    private final Set<LocalSocket> clients = ConcurrentHashMap.newKeySet();
+    private LocalServerSocket serverSocket;
+    private volatile boolean running;
+
+    LocalSocketServer(PackageManager packageManager, RequestScheduler workers, Handler handler) {
+        this.packageManager = packageManager;
+        this.workers = workers;
+        this.handler = handler;
+    }
+
+    void start() throws IOException {
+        serverSocket = new LocalServerSocket(LocalSocketProtocol.SOCKET_NAME);
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "LocalTrans-SockAccept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Log.i(TAG, "Local socket server started on @" + LocalSocketProtocol.SOCKET_NAME);
+    }
+
+    void stop() {
+        if (!running) return;
+        running = false;
+        // accept() does not return when the server socket is closed; wake it with a connection.
+        try (LocalSocket wake = new LocalSocket()) {
+            wake.connect(new LocalSocketAddress(LocalSocketProtocol.SOCKET_NAME, LocalSocketAddress.Namespace.ABSTRACT));
+        } catch (IOException ignored) {
+        }
+        try { serverSocket.close(); } catch (IOException ignored) {}
+        for (LocalSocket s : clients) {
+            try { s.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            LocalSocket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) Log.e(TAG, "Local socket accept failed: " + e.getMessage());
+                continue;
+            }
+            if (!running) {
+                try { socket.close(); } catch (IOException ignored) {}
+                break;
+            }
+            Thread reader = new Thread(() -> serve(socket), "LocalTrans-Sock");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private void serve(LocalSocket socket) {
+        clients.add(socket);
+        try {
+            String caller = callerName(socket);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (running) {
+                LocalSocketProtocol.Request request;
+                long startNanos;
+                try {
+                    ByteBuffer frame = LocalSocketProtocol.readFrame(in);
+                    startNanos = System.nanoTime();
+                    request = LocalSocketProtocol.decodeRequest(frame);
+                } catch (EOFException eof) {
+                    break;
+                }
+                ServerMetrics.since(ServerMetrics.STAGE_PARSE, ServerMetrics.NO_PAIR, startNanos);
+                final LocalSocketProtocol.Request r = request;
+                long deadline = r.budgetMs > 0 ? SystemClock.uptimeMillis() + r.budgetMs : RequestScheduler.NO_DEADLINE;
+                try {
+                    workers.submit(r.priority, caller, deadline, new RequestScheduler.Task() {
+                        @Override
+                        public void run() {
+                            send(out, handler.handle(r, caller, deadline), startNanos);
+                        }
+
+                        @Override
+                        public void drop(String reason) {
+                            send(out, new LocalSocketProtocol.Response(r.id, LocalSocketProtocol.STATUS_BUSY, reason), startNanos);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    send(out, new LocalSocketProtocol.Response(r.id, LocalSocketProtocol.STATUS_BUSY, "server busy"), startNanos);
+                }
+            }
+        } catch (IOException e) {
+            // peer went away or sent garbage; drop the connection
+        } finally {
+            clients.remove(socket);
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private static void send(OutputStream out, LocalSocketProtocol.Response response, long startNanos) {
+        if (response == null) return;
+        long writeStart = System.nanoTime();
+        byte[] frame = LocalSocketProtocol.encodeResponse(response);
+        synchronized (out) {
+            try {
+                LocalSocketProtocol.writeFrame(out, frame);
+            } catch (IOException ignored) {
+                // the reader notices the broken connection
+            }
+        }
+        ServerMetrics.since(ServerMetrics.STAGE_WRITE, ServerMetrics.NO_PAIR, writeStart);
+        ServerMetrics.since(ServerMetrics.STAGE_TOTAL, ServerMetrics.NO_PAIR, startNanos);
+        ServerMetrics.response("socket", response.status == LocalSocketProtocol.STATUS_OK ? 200
+                : response.status == LocalSocketProtocol.STATUS_BUSY ? 503 : 500);
+    }
+
+    /**
+     * Lane name for the peer: the package behind its uid, or the bare uid for processes without
+     * a package. Only used for fair scheduling.
+     */
+    private String callerName(LocalSocket socket) throws IOException {
+        int uid = socket.getPeerCredentials().getUid();
+        if (uid == Process.myUid()) return "self";
+        String[] packages = packageManager.getPackagesForUid(uid);
+        return packages == null || packages.length == 0 ? "uid:" + uid : packages[0];
+    }
+}
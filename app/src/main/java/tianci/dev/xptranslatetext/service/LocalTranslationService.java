@@ -9,6 +9,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Base64;
 
@@ -16,7 +17,6 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
 import com.google.android.gms.tasks.Tasks;
-import com.google.mlkit.common.model.DownloadConditions;
 import com.google.mlkit.nl.languageid.LanguageIdentification;
 import com.google.mlkit.nl.languageid.LanguageIdentificationOptions;
 import com.google.mlkit.nl.languageid.LanguageIdentifier;
@@ -26,35 +26,27 @@ import com.google.mlkit.nl.translate.Translator;
 import com.google.mlkit.nl.translate.TranslatorOptions;
 
 import tianci.dev.xptranslatetext.R;
+import tianci.dev.xptranslatetext.util.JsonWriter;
 import tianci.dev.xptranslatetext.util.ModelInfoUtil;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.ByteArrayOutputStream;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.URLDecoder;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocket;
-import javax.net.ssl.SSLServerSocketFactory;
 
 import java.security.KeyStore;
 import java.security.KeyFactory;
@@ -66,7 +58,11 @@ import java.security.cert.CertificateFactory;
 /**
  * Foreground service that starts a minimal HTTPS server on 127.0.0.1:18181.
  * Route: /translate?src=xx&dst=yy&q=...
+ * Route: /metrics (per-stage latencies, counters and queue depths, Prometheus text format)
  * - When src=auto, use ML Kit Language ID for detection.
+ * - Connections are served by {@link NioHttpsServer}; translations run on {@link #scheduler}, by
+ *   priority and in turns across calling apps.
+ * - Concurrent requests per language pair are micro-batched by {@link TranslationDispatcher}.
  */
 public class LocalTranslationService extends Service {
 
@@ -78,9 +74,28 @@ public class LocalTranslationService extends Service {
 
     private static final AtomicBoolean RUNNING = new AtomicBoolean(false);
 
-    private ServerSocket serverSocket;
-    private ExecutorService clientExecutor;
-    private Thread serverThread;
+    // Requests queued beyond the busy workers before answering 503.
+    private static final int MAX_QUEUED_REQUESTS = 256;
+    // Requests per scheduler turn of the shared HTTPS queue; a socket caller takes one.
+    private static final int HTTPS_WEIGHT = 2;
+    private static final int MAX_CACHED_RESULTS = 2048;
+    // Longest a duplicate request waits for the identical one in flight, even without a budget.
+    private static final long MAX_JOIN_WAIT_MS = 30_000;
+
+    private NioHttpsServer server;
+    private LocalSocketServer socketServer;
+    private RequestScheduler scheduler;
+    private TranslationDispatcher dispatcher;
+
+    // Completed translations keyed by src, dst and text; guarded by itself.
+    private final Map<String, String> resultCache = new LinkedHashMap<String, String>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_RESULTS;
+        }
+    };
+    // Translations currently running, shared by identical concurrent requests.
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
 
     public static boolean isRunning() {
         return RUNNING.get();
@@ -90,20 +105,19 @@ public class LocalTranslationService extends Service {
     public void onCreate() {
         super.onCreate();
         int cores = Runtime.getRuntime().availableProcessors();
-        int coreThreads = Math.max(4, cores);
-        int maxThreads = Math.min(64, Math.max(16, cores * 8));
-        clientExecutor = new ThreadPoolExecutor(
-                coreThreads,
-                maxThreads,
-                60L,
-                TimeUnit.SECONDS,
-                new SynchronousQueue<>(),
-                r -> {
-                    Thread t = new Thread(r, "LocalTrans-Worker");
-                    t.setDaemon(true);
-                    return t;
-                }
-        );
+        // Translation is CPU-bound on-device work; connections no longer need a thread each.
+        int workers = Math.max(4, cores * 2);
+        scheduler = new RequestScheduler(workers, MAX_QUEUED_REQUESTS);
+        // Apps that cannot reach the socket (SELinux policy differs per app domain) all share
+        // the HTTPS queue, so it gets more than one verified app's share.
+        scheduler.setWeight(NioHttpsServer.CALLER, HTTPS_WEIGHT);
+        scheduler.start();
+
+        SharedPreferences sp = getSharedPreferences("xp_translate_text_configs", MODE_PRIVATE);
+        dispatcher = new TranslationDispatcher(this::createTranslator,
+                sp.getInt("local_batch_max_size", TranslationDispatcher.DEFAULT_MAX_BATCH),
+                sp.getInt("local_batch_linger_ms", TranslationDispatcher.DEFAULT_MAX_LINGER_MS),
+                sp.getInt("local_translators_per_pair", TranslationDispatcher.defaultTranslatorsPerPair()));
         createNotificationChannel();
     }
 
@@ -127,7 +141,8 @@ public class LocalTranslationService extends Service {
     @Override
     public void onDestroy() {
         stopServer();
-        if (clientExecutor != null) clientExecutor.shutdownNow();
+        if (scheduler != null) scheduler.shutdown();
+        if (dispatcher != null) dispatcher.shutdown();
         super.onDestroy();
     }
 
@@ -162,176 +177,241 @@ public class LocalTranslationService extends Service {
     private void startServer() {
         if (RUNNING.get()) return;
         RUNNING.set(true);
-        serverThread = new Thread(() -> {
-            try {
-                SSLServerSocketFactory sslFactory = buildServerSslSocketFactory();
-                if (sslFactory != null) {
-                    try {
-                        serverSocket = sslFactory.createServerSocket(PORT, 128, InetAddress.getByName("127.0.0.1"));
-                        if (serverSocket instanceof SSLServerSocket) {
-                            SSLServerSocket sslServerSocket = (SSLServerSocket) serverSocket;
-                            try {
-                                sslServerSocket.setUseClientMode(false);
-                                sslServerSocket.setNeedClientAuth(false);
-                                sslServerSocket.setEnabledProtocols(new String[]{"TLSv1.3", "TLSv1.2"});                            } catch (Throwable ignored) {}
-                        }
-                        Log.i("LocalTranslation", "HTTPS server started on 127.0.0.1:" + PORT);
-                    } catch (Throwable t) {
-                        Log.e("LocalTranslation", "Failed to start HTTPS server: " + t);
-                        // If HTTPS fails, do NOT fallback to HTTP to avoid cleartext policy issues.
-                        throw t;
-                    }
-                } else {
-                    // No key material => do not start to avoid cleartext
-                    throw new IOException("No local HTTPS key material (PEM) available");
-                }
-                while (RUNNING.get()) {
-                    final Socket socket = serverSocket.accept();
-                    try {
-                        clientExecutor.execute(() -> handleClient(socket));
-                    } catch (RejectedExecutionException rex) {
-                        try (OutputStream os = socket.getOutputStream()) {
-                            respond(os, 503, json("error", "server busy"));
-                        } catch (Throwable ignored) {
-                        } finally {
-                            try { socket.close(); } catch (Throwable ignored) {}
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                Log.e("LocalTranslation", "Server error: " + e.getMessage());
-            } finally {
-                RUNNING.set(false);
-                if (serverSocket != null) {
-                    try { serverSocket.close(); } catch (IOException ignored) {}
-                }
+        try {
+            SSLContext sslContext = buildServerSslContext();
+            if (sslContext == null) {
+                // No key material => do not start to avoid cleartext
+                throw new IOException("No local HTTPS key material (PEM) available");
             }
-        }, "LocalTranslationServer");
-        serverThread.start();
+            int ioThreads = Math.min(2, Runtime.getRuntime().availableProcessors());
+            server = new NioHttpsServer(sslContext, new InetSocketAddress("127.0.0.1", PORT),
+                    ioThreads, scheduler, this::handleRequest);
+            server.start();
+            Log.i("LocalTranslation", "HTTPS server started on 127.0.0.1:" + PORT);
+        } catch (Throwable t) {
+            // If HTTPS fails, do NOT fallback to HTTP to avoid cleartext policy issues.
+            Log.e("LocalTranslation", "Failed to start HTTPS server: " + t);
+            stopServer();
+            return;
+        }
+
+        // Preferred by clients that can reach it; HTTPS stays up for those that cannot.
+        try {
+            socketServer = new LocalSocketServer(getPackageManager(), scheduler, this::handleSocketRequest);
+            socketServer.start();
+        } catch (Throwable t) {
+            Log.e("LocalTranslation", "Failed to start local socket server: " + t);
+            socketServer = null;
+        }
     }
 
     private void stopServer() {
         RUNNING.set(false);
-        if (serverSocket != null) {
-            try { serverSocket.close(); } catch (IOException ignored) {}
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+        if (socketServer != null) {
+            socketServer.stop();
+            socketServer = null;
         }
     }
 
-    private void handleClient(Socket socket) {
-        try (InputStream is = socket.getInputStream(); OutputStream os = socket.getOutputStream()) {
-            BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+    /** A translation that could not be produced; {@code code} follows HTTP status semantics. */
+    static final class TranslateException extends Exception {
+        final int code;
 
-            String requestLine = br.readLine();
-            if (requestLine == null || requestLine.isEmpty()) {
-                respond(os, 400, json("error", "bad request"));
-                return;
-            }
+        TranslateException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
 
-            // Only handle GET routes.
-            String[] parts = requestLine.split(" ");
-            if (parts.length < 2) {
-                respond(os, 400, json("error", "bad request"));
-                return;
-            }
-            String path = parts[1];
+    /** Runs on a worker thread for each HTTPS request head. */
+    private NioHttpsServer.Response handleRequest(NioHttpsServer.Request request, long deadline) {
+        if (request.pathStartsWith("/health")) {
+            return new NioHttpsServer.Response(200, JsonWriter.object("status", "ok"));
+        }
 
-            // Consume request headers until an empty line.
-            String line;
-            while ((line = br.readLine()) != null && !line.isEmpty()) { /* skip */ }
+        if (request.pathStartsWith("/metrics")) {
+            return new NioHttpsServer.Response(200, renderMetrics().getBytes(StandardCharsets.UTF_8), "text/plain; version=0.0.4; charset=utf-8");
+        }
 
-            if (path.startsWith("/health")) {
-                respond(os, 200, json("status", "ok"));
-                return;
-            }
+        if (!request.pathStartsWith("/translate")) {
+            return new NioHttpsServer.Response(404, JsonWriter.object("error", "not found"));
+        }
 
-            if (!path.startsWith("/translate")) {
-                respond(os, 404, json("error", "not found"));
-                return;
-            }
+        try {
+            String translated = translate(request.query("q"), request.query("src"), request.query("dst"), deadline);
+            JsonWriter payload = new JsonWriter(32 + translated.length() * 3)
+                    .beginObject().name("code").value(0).name("text").value(translated).endObject();
+            return new NioHttpsServer.Response(200, payload.toByteArray());
+        } catch (TranslateException e) {
+            return new NioHttpsServer.Response(e.code, JsonWriter.object("error", e.getMessage()));
+        }
+    }
+
+    private String renderMetrics() {
+        Map<String, Long> gauges = new HashMap<>();
+        gauges.put("xp_local_queue_depth{lane=\"quick\"}", (long) scheduler.queued(LocalSocketProtocol.PRIORITY_QUICK));
+        gauges.put("xp_local_queue_depth{lane=\"foreground\"}", (long) scheduler.queued(LocalSocketProtocol.PRIORITY_FOREGROUND));
+        gauges.put("xp_local_queue_depth{lane=\"background\"}", (long) scheduler.queued(LocalSocketProtocol.PRIORITY_BACKGROUND));
+        gauges.put("xp_local_translator_queue_depth", (long) dispatcher.queued());
+        gauges.put("xp_local_in_flight", (long) inFlight.size());
+        synchronized (resultCache) {
+            gauges.put("xp_local_cache_entries", (long) resultCache.size());
+        }
+        return ServerMetrics.render(gauges);
+    }
 
-            Map<String, String> query = parseQuery(path);
-            String text = query.get("q");
-            String src = query.get("src");
-            String dst = query.get("dst");
+    /** Runs on a worker thread for each local socket request. */
+    private LocalSocketProtocol.Response handleSocketRequest(LocalSocketProtocol.Request request, String caller, long deadline) {
+        try {
+            String translated = translate(request.text, request.src, request.dst, deadline);
+            return new LocalSocketProtocol.Response(request.id, LocalSocketProtocol.STATUS_OK, translated);
+        } catch (TranslateException e) {
+            byte status = e.code == 503 ? LocalSocketProtocol.STATUS_BUSY : LocalSocketProtocol.STATUS_ERROR;
+            return new LocalSocketProtocol.Response(request.id, status, e.getMessage());
+        }
+    }
 
-            if (text == null || text.isEmpty()) {
-                respond(os, 400, json("error", "q required"));
-                return;
-            }
-            if (dst == null || dst.isEmpty()) {
-                // Read target language from shared preferences.
-                SharedPreferences sp = getSharedPreferences("xp_translate_text_configs", MODE_PRIVATE);
-                dst = sp.getString("target_lang", "zh-TW");
-            }
-            if (src == null || src.isEmpty()) {
-                // Read source language from shared preferences.
-                SharedPreferences sp = getSharedPreferences("xp_translate_text_configs", MODE_PRIVATE);
-                src = sp.getString("source_lang", "auto");
+    /**
+     * Translates {@code text}; empty languages fall back to the saved configuration.
+     *
+     * Results are served from {@link #resultCache} when possible, before any language
+     * identification or translator work. Identical requests arriving while one is being
+     * translated (from several apps, or a retry after a client timeout) wait for that one
+     * instead of running the model again, until their own {@code deadline} (at most
+     * {@link #MAX_JOIN_WAIT_MS}); then they are answered 503.
+     */
+    private String translate(String text, String src, String dst, long deadline) throws TranslateException {
+        if (text == null || text.isEmpty()) {
+            throw new TranslateException(400, "q required");
+        }
+        if (dst == null || dst.isEmpty()) {
+            // Read target language from shared preferences.
+            SharedPreferences sp = getSharedPreferences("xp_translate_text_configs", MODE_PRIVATE);
+            dst = sp.getString("target_lang", "zh-TW");
+        }
+        if (src == null || src.isEmpty()) {
+            // Read source language from shared preferences.
+            SharedPreferences sp = getSharedPreferences("xp_translate_text_configs", MODE_PRIVATE);
+            src = sp.getString("source_lang", "auto");
+        }
+
+        final String key = src + '\n' + dst + '\n' + text;
+        synchronized (resultCache) {
+            String cached = resultCache.get(key);
+            if (cached != null) {
+                ServerMetrics.cache("hit");
+                return cached;
             }
+        }
 
-            // Auto language identification when src=auto.
-            if ("auto".equalsIgnoreCase(src)) {
-                LanguageIdentifier idClient = LanguageIdentification.getClient(
-                        new LanguageIdentificationOptions.Builder().setConfidenceThreshold(0.5f).build()
-                );
-                try {
-                    String tag = Tasks.await(idClient.identifyLanguage(text));
-                    if (tag == null || "und".equalsIgnoreCase(tag)) {
-                        src = "en"; // Fallback when detection fails.
-                    } else {
-                        src = tag;
-                    }
-                } catch (Exception e) {
-                    src = "en";
-                } finally {
-                    try { idClient.close(); } catch (Throwable ignored) {}
-                }
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            ServerMetrics.cache("joined");
+            long waitMs = Math.min(MAX_JOIN_WAIT_MS, deadline - SystemClock.uptimeMillis());
+            try {
+                return existing.get(Math.max(0, waitMs), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                ServerMetrics.rejected("deadline");
+                throw new TranslateException(503, "deadline exceeded");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof TranslateException) throw (TranslateException) cause;
+                throw new TranslateException(500, cause == null || cause.getMessage() == null ? "translate failed" : cause.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TranslateException(503, "server stopping");
             }
+        }
 
-            String mlSrc = normalizeToMlkitCode(src);
-            String mlDst = normalizeToMlkitCode(dst);
-            if (mlSrc == null || mlDst == null) {
-                respond(os, 400, json("error", "unsupported language"));
-                return;
+        ServerMetrics.cache("miss");
+        try {
+            String translated = translateUncached(text, src, dst, deadline);
+            synchronized (resultCache) {
+                resultCache.put(key, translated);
             }
+            flight.complete(translated);
+            return translated;
+        } catch (TranslateException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Never leave followers waiting, whatever went wrong.
+            if (!flight.isDone()) flight.completeExceptionally(new TranslateException(500, "translate failed"));
+            inFlight.remove(key, flight);
+        }
+    }
 
-            Translator translator = null;
+    /**
+     * Translates {@code text} with ML Kit; src=auto is resolved with language identification.
+     * Answers 503 when the translation is not done by {@code deadline}.
+     */
+    private String translateUncached(String text, String src, String dst, long deadline) throws TranslateException {
+        // Auto language identification when src=auto.
+        if ("auto".equalsIgnoreCase(src)) {
+            LanguageIdentifier idClient = LanguageIdentification.getClient(
+                    new LanguageIdentificationOptions.Builder().setConfidenceThreshold(0.5f).build()
+            );
+            long idStart = System.nanoTime();
             try {
-                translator = createTranslator(mlSrc, mlDst);
-                // Download model if needed.
-                DownloadConditions cond = new DownloadConditions.Builder().build();
-                Tasks.await(translator.downloadModelIfNeeded(cond));
-
-                // Record last used timestamps keyed by language code.
-                try {
-                    ModelInfoUtil.markModelUsed(this, mlSrc);
-                    ModelInfoUtil.markModelUsed(this, mlDst);
-                } catch (Throwable ignored) { }
-
-                String translated = Tasks.await(translator.translate(text));
-                // Convert simplified Chinese output to Traditional when requested.
-                if (isTraditionalChinese(dst)) {
-                    translated = toTraditionalChinese(translated);
+                String tag = Tasks.await(idClient.identifyLanguage(text));
+                if (tag == null || "und".equalsIgnoreCase(tag)) {
+                    src = "en"; // Fallback when detection fails.
+                } else {
+                    src = tag;
                 }
-                String payload = "{\"code\":0,\"text\":" + jsonString(translated) + "}";
-                respond(os, 200, payload);
             } catch (Exception e) {
-                respond(os, 500, json("error", e.getMessage() == null ? "translate failed" : e.getMessage()));
+                src = "en";
             } finally {
-                if (translator != null) {
-                    try { translator.close(); } catch (Throwable ignored) {}
-                }
+                try { idClient.close(); } catch (Throwable ignored) {}
+                ServerMetrics.since(ServerMetrics.STAGE_LANG_ID, ServerMetrics.NO_PAIR, idStart);
             }
+        }
 
-        } catch (IOException e) {
-            // ignore per-connection errors
-        } finally {
-            try { socket.close(); } catch (IOException ignored) {}
+        String mlSrc = normalizeToMlkitCode(src);
+        String mlDst = normalizeToMlkitCode(dst);
+        if (mlSrc == null || mlDst == null) {
+            throw new TranslateException(400, "unsupported language");
+        }
+
+        try {
+            // Batched with concurrent requests for the same pair on a warm translator; long texts
+            // are sharded across several translators.
+            String translated = text.length() >= TranslationDispatcher.SHARD_MIN_CHARS
+                    ? dispatcher.translateLong(mlSrc, mlDst, text, deadline)
+                    : dispatcher.translate(mlSrc, mlDst, text, deadline);
+
+            // Record last used timestamps keyed by language code.
+            try {
+                ModelInfoUtil.markModelUsed(this, mlSrc);
+                ModelInfoUtil.markModelUsed(this, mlDst);
+            } catch (Throwable ignored) { }
+
+            // Convert simplified Chinese output to Traditional when requested.
+            if (isTraditionalChinese(dst)) {
+                long hantStart = System.nanoTime();
+                translated = toTraditionalChinese(translated);
+                ServerMetrics.since(ServerMetrics.STAGE_HANT, mlSrc + '>' + mlDst, hantStart);
+            }
+            return translated;
+        } catch (TimeoutException e) {
+            ServerMetrics.rejected("deadline");
+            throw new TranslateException(503, "deadline exceeded");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new TranslateException(500, cause.getMessage() == null ? "translate failed" : cause.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranslateException(503, "server stopping");
         }
     }
 
     /**
-     * Build SSLServerSocketFactory using only unencrypted PKCS#8 private key (PEM) + X.509 certificate (PEM).
+     * Build the server SSLContext using only unencrypted PKCS#8 private key (PEM) + X.509 certificate (PEM).
      *
      * Expected locations (either pair):
      * - assets/local_https_server.key + assets/local_https_server.crt
@@ -340,13 +420,13 @@ public class LocalTranslationService extends Service {
      * To avoid cleartext, this service does not fallback to HTTP; missing materials cause startup failure.
      */
     @Nullable
-    private SSLServerSocketFactory buildServerSslSocketFactory() {
+    private SSLContext buildServerSslContext() {
         // 僅走 PEM 流程
-        return buildServerSslSocketFactoryFromPem();
+        return buildServerSslContextFromPem();
     }
 
     @Nullable
-    private SSLServerSocketFactory buildServerSslSocketFactoryFromPem() {
+    private SSLContext buildServerSslContextFromPem() {
         InputStream keyIs = null;
         InputStream crtIs = null;
         try {
@@ -395,9 +475,9 @@ public class LocalTranslationService extends Service {
             SSLContext sslContext = SSLContext.getInstance("TLS");
             sslContext.init(kmf.getKeyManagers(), null, null);
             Log.i("LocalTranslation", "HTTPS server configured from PEM assets.");
-            return sslContext.getServerSocketFactory();
+            return sslContext;
         } catch (Throwable t) {
-            Log.e("LocalTranslation", "buildServerSslSocketFactoryFromPem error: " + t);
+            Log.e("LocalTranslation", "buildServerSslContextFromPem error: " + t);
             return null;
         } finally {
             if (keyIs != null) try { keyIs.close(); } catch (Throwable ignored) {}
@@ -475,60 +555,4 @@ public class LocalTranslationService extends Service {
         }
         return simplified; // Fallback gracefully when ICU is unavailable or API < 29.
     }
-
-    private static Map<String, String> parseQuery(String pathWithQuery) {
-        Map<String, String> map = new HashMap<>();
-        int qIdx = pathWithQuery.indexOf('?');
-        if (qIdx < 0) return map;
-        String qs = pathWithQuery.substring(qIdx + 1);
-        for (String pair : qs.split("&")) {
-            int eq = pair.indexOf('=');
-            if (eq <= 0) continue;
-            String k = urlDecode(pair.substring(0, eq));
-            String v = urlDecode(pair.substring(eq + 1));
-            map.put(k, v);
-        }
-        return map;
-    }
-
-    private static String urlDecode(String s) {
-        try {
-            return URLDecoder.decode(s, "UTF-8");
-        } catch (Exception e) {
-            return s;
-        }
-    }
-
-    private static void respond(OutputStream os, int code, String body) throws IOException {
-        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
-        String status = switch (code) {
-            case 200 -> "OK";
-            case 400 -> "Bad Request";
-            case 404 -> "Not Found";
-            case 503 -> "Service Unavailable";
-            default -> "Internal Server Error";
-        };
-        String headers = "HTTP/1.1 " + code + " " + status + "\r\n"
-                + "Content-Type: application/json; charset=utf-8\r\n"
-                + "Access-Control-Allow-Origin: *\r\n"
-                + "Connection: close\r\n";
-        String content = body == null ? "{}" : body;
-        headers += "Content-Length: " + content.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n";
-        bw.write(headers);
-        bw.write(content);
-        bw.flush();
-    }
-
-    private static String json(String k, String v) {
-        return "{\"" + k + "\":" + jsonString(v) + "}";
-    }
-
-    private static String jsonString(String s) {
-        if (s == null) return "null";
-        String esc = s
-                .replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n");
-        return "\"" + esc + "\"";
-    }
 }
@@ -0,0 +1,672 @@
+package tianci.dev.xptranslatetext.service;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+import tianci.dev.xptranslatetext.util.JsonWriter;
+
+/**
+ * Selector-based HTTPS/1.1 server behind {@link LocalTranslationService}.
+ *
+ * A small fixed set of I/O threads owns every connection: each runs one {@link Selector} and
+ * drives the {@link SSLEngine} of its connections, so open connections no longer cost a thread
+ * each. Request heads are parsed in place from the decrypted buffer and handed to a separate
+ * worker pool; responses are queued back to the owning I/O thread. Connections are kept alive
+ * between requests, which also saves a TLS handshake per translation.
+ */
+final class NioHttpsServer {
+
+    private static final String TAG = "LocalTranslation";
+
+    /** Upper bound for one request head (the text travels in the query string). */
+    private static final int MAX_REQUEST_BYTES = 256 * 1024;
+    private static final int MAX_CONNECTIONS = 1024;
+    private static final long KEEP_ALIVE_MS = 15_000;
+    private static final long SWEEP_INTERVAL_MS = 1_000;
+    private static final byte[] EMPTY_OBJECT = {'{', '}'};
+
+    /**
+     * Scheduler caller of every HTTPS request. Unlike the local socket, nothing here proves
+     * which app is calling, so they all share one queue instead of trusting a claimed name.
+     * Not a valid package name, so it never collides with a socket caller.
+     */
+    static final String CALLER = "(https)";
+
+    interface Handler {
+        /**
+         * Runs on the worker pool. {@code deadline} is when the client stops waiting, in
+         * {@link SystemClock#uptimeMillis()} time, or {@link RequestScheduler#NO_DEADLINE}.
+         */
+        Response handle(Request request, long deadline) throws Exception;
+    }
+
+    static final class Response {
+        final int code;
+        /** Encoded body, already UTF-8. */
+        final byte[] body;
+        final String contentType;
+
+        Response(int code, byte[] body) {
+            this(code, body, "application/json; charset=utf-8");
+        }
+
+        Response(int code, byte[] body, String contentType) {
+            this.code = code;
+            this.body = body;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * A parsed request head. It points into the connection's buffer instead of copying it, and
+     * is only valid until its response is handed back.
+     */
+    static final class Request {
+        private final byte[] buf;
+        private final int pathStart;
+        private final int pathEnd;
+        private final int queryStart;
+
+        Request(byte[] buf, int pathStart, int pathEnd) {
+            this.buf = buf;
+            this.pathStart = pathStart;
+            this.pathEnd = pathEnd;
+            int q = -1;
+            for (int i = pathStart; i < pathEnd; i++) {
+                if (buf[i] == '?') {
+                    q = i + 1;
+                    break;
+                }
+            }
+            this.queryStart = q;
+        }
+
+        boolean pathStartsWith(String prefix) {
+            int end = queryStart < 0 ? pathEnd : queryStart - 1;
+            if (end - pathStart < prefix.length()) return false;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (buf[pathStart + i] != prefix.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        /** The percent-decoded value of query parameter {@code key}, or null when absent. */
+        String query(String key) {
+            if (queryStart < 0) return null;
+            int i = queryStart;
+            while (i < pathEnd) {
+                int pairEnd = indexOf(buf, (byte) '&', i, pathEnd);
+                int eq = indexOf(buf, (byte) '=', i, pairEnd);
+                if (eq > i && keyEquals(i, eq, key)) {
+                    return percentDecode(buf, eq + 1, pairEnd);
+                }
+                i = pairEnd + 1;
+            }
+            return null;
+        }
+
+        private boolean keyEquals(int from, int to, String key) {
+            // Keys are plain ASCII here; no decoding needed.
+            if (to - from != key.length()) return false;
+            for (int i = 0; i < key.length(); i++) {
+                if (buf[from + i] != key.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+
+    private final SSLContext sslContext;
+    private final InetSocketAddress address;
+    private final RequestScheduler workers;
+    private final Handler handler;
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    NioHttpsServer(SSLContext sslContext, InetSocketAddress address, int ioThreads, RequestScheduler workers, Handler handler) {
+        this.sslContext = sslContext;
+        this.address = address;
+        this.workers = workers;
+        this.handler = handler;
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+    }
+
+    void start() throws IOException {
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(i);
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(address, 128);
+        // The first loop also accepts; accepted channels are spread over all loops.
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (IoLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    void stop() {
+        running = false;
+        if (serverChannel != null) {
+            try { serverChannel.close(); } catch (IOException ignored) {}
+        }
+        for (IoLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = serverChannel.accept()) != null) {
+            if (connections.get() >= MAX_CONNECTIONS) {
+                try { ch.close(); } catch (IOException ignored) {}
+                continue;
+            }
+            connections.incrementAndGet();
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            final SocketChannel accepted = ch;
+            IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            loop.post(() -> loop.register(accepted));
+        }
+    }
+
+    private final class IoLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        long lastSweep;
+
+        IoLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "LocalTrans-IO-" + index);
+            thread.setDaemon(true);
+        }
+
+        void post(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel ch) {
+            try {
+                SSLEngine engine = sslContext.createSSLEngine();
+                engine.setUseClientMode(false);
+                engine.setNeedClientAuth(false);
+                try {
+                    engine.setEnabledProtocols(new String[]{"TLSv1.3", "TLSv1.2"});
+                } catch (Throwable ignored) {}
+                engine.beginHandshake();
+                Connection c = new Connection(this, ch, engine);
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            } catch (Throwable t) {
+                Log.e(TAG, "register connection failed: " + t);
+                connections.decrementAndGet();
+                closeQuietly(ch);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SWEEP_INTERVAL_MS);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            Log.e(TAG, "io task failed: " + t);
+                        }
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        handleKey(key);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= SWEEP_INTERVAL_MS) {
+                        lastSweep = now;
+                        sweepIdle(now);
+                    }
+                }
+            } catch (Throwable t) {
+                Log.e(TAG, "io loop error: " + t);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    Object att = key.attachment();
+                    if (att instanceof Connection) ((Connection) att).close();
+                }
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            if (!key.isValid()) return;
+            Object att = key.attachment();
+            if (att == null) {
+                try {
+                    if (key.isAcceptable()) accept();
+                } catch (IOException e) {
+                    if (running) Log.e(TAG, "accept failed: " + e.getMessage());
+                }
+                return;
+            }
+            Connection c = (Connection) att;
+            try {
+                if (key.isWritable()) {
+                    c.flush();
+                    // A handshake step may have been waiting for the socket to drain.
+                    if (key.isValid() && c.netOut.position() == 0) c.process();
+                }
+                if (key.isValid() && key.isReadable()) c.onReadable();
+            } catch (Throwable t) {
+                c.close();
+            }
+        }
+
+        private void sweepIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Object att = key.attachment();
+                if (!(att instanceof Connection)) continue;
+                Connection c = (Connection) att;
+                if (!c.busy && now - c.lastActive > KEEP_ALIVE_MS) c.close();
+            }
+        }
+    }
+
+    private final class Connection {
+        final IoLoop loop;
+        final SocketChannel channel;
+        final SSLEngine engine;
+        SelectionKey key;
+        ByteBuffer netIn;
+        ByteBuffer appIn;
+        ByteBuffer netOut;
+        /** A request is with the workers; reading pauses until its response is queued. */
+        boolean busy;
+        boolean closeAfterFlush;
+        boolean closed;
+        long lastActive = System.currentTimeMillis();
+
+        Connection(IoLoop loop, SocketChannel channel, SSLEngine engine) {
+            this.loop = loop;
+            this.channel = channel;
+            this.engine = engine;
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(netIn);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            process();
+        }
+
+        /** Drives the handshake and decrypts whatever arrived; dispatches a complete request head. */
+        void process() throws IOException {
+            while (!closed) {
+                SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    // Certificate work; short, and rare thanks to keep-alive.
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) task.run();
+                    continue;
+                }
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    wrap(ByteBuffer.allocate(0));
+                    flush();
+                    if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP && netOut.position() > 0) {
+                        return; // wait for the socket to drain
+                    }
+                    continue;
+                }
+                if (busy) return;
+
+                netIn.flip();
+                SSLEngineResult r;
+                try {
+                    r = engine.unwrap(netIn, appIn);
+                } finally {
+                    netIn.compact();
+                }
+                switch (r.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        if (netIn.position() == netIn.capacity()) {
+                            netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                            continue;
+                        }
+                        tryDispatch();
+                        return;
+                    case BUFFER_OVERFLOW:
+                        if (appIn.capacity() >= MAX_REQUEST_BYTES) {
+                            close();
+                            return;
+                        }
+                        appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                        continue;
+                    case CLOSED:
+                        close();
+                        return;
+                    default:
+                        if (r.bytesConsumed() == 0 && r.bytesProduced() == 0
+                                && engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK
+                                && engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                            tryDispatch();
+                            return;
+                        }
+                }
+            }
+        }
+
+        /** Looks for a complete request head in {@code appIn} and hands it to the workers. */
+        private void tryDispatch() throws IOException {
+            if (busy || closed) return;
+            byte[] a = appIn.array();
+            int len = appIn.position();
+            int headEnd = indexOfHeadEnd(a, len);
+            if (headEnd < 0) {
+                if (len >= MAX_REQUEST_BYTES) {
+                    closeAfterFlush = true;
+                    send(encode(new Response(400, JsonWriter.object("error", "request too large")), false));
+                }
+                return;
+            }
+            final long startNanos = System.nanoTime();
+
+            // Request line: METHOD SP PATH SP VERSION CRLF
+            int lineEnd = indexOf(a, (byte) '\r', 0, headEnd);
+            int sp1 = indexOf(a, (byte) ' ', 0, lineEnd);
+            int sp2 = sp1 >= lineEnd ? lineEnd : indexOf(a, (byte) ' ', sp1 + 1, lineEnd);
+            if (sp1 == 0 || sp2 >= lineEnd) {
+                closeAfterFlush = true;
+                consume(headEnd);
+                send(encode(new Response(400, JsonWriter.object("error", "bad request")), false));
+                return;
+            }
+            boolean get = sp1 == 3 && a[0] == 'G' && a[1] == 'E' && a[2] == 'T';
+            boolean http11 = regionEquals(a, sp2 + 1, lineEnd, "HTTP/1.1");
+            // Bodies are not read; anything but a plain GET ends the connection.
+            boolean keepAlive = get && http11 && !headerContains(a, lineEnd, headEnd, "connection:", "close");
+
+            final Request request = new Request(a, sp1 + 1, sp2);
+            final int consumed = headEnd;
+            busy = true;
+            updateInterest();
+            // Scheduling hints: prio (LocalSocketProtocol priority), budget (ms the client waits).
+            byte priority = request.pathStartsWith("/translate")
+                    ? (byte) parseIntOr(request.query("prio"), LocalSocketProtocol.PRIORITY_FOREGROUND)
+                    : LocalSocketProtocol.PRIORITY_QUICK;
+            int budget = parseIntOr(request.query("budget"), 0);
+            long deadline = budget > 0 ? SystemClock.uptimeMillis() + budget : RequestScheduler.NO_DEADLINE;
+            ServerMetrics.since(ServerMetrics.STAGE_PARSE, ServerMetrics.NO_PAIR, startNanos);
+            try {
+                workers.submit(priority, CALLER, deadline, new RequestScheduler.Task() {
+                    @Override
+                    public void run() {
+                        Response response;
+                        try {
+                            response = handler.handle(request, deadline);
+                        } catch (Throwable t) {
+                            response = new Response(500, JsonWriter.object("error", t.getMessage() == null ? "translate failed" : t.getMessage()));
+                        }
+                        respond(response);
+                    }
+
+                    @Override
+                    public void drop(String reason) {
+                        respond(new Response(503, JsonWriter.object("error", reason)));
+                    }
+
+                    private void respond(Response response) {
+                        long writeStart = System.nanoTime();
+                        final byte[] bytes = encode(response, keepAlive);
+                        ServerMetrics.since(ServerMetrics.STAGE_WRITE, ServerMetrics.NO_PAIR, writeStart);
+                        ServerMetrics.since(ServerMetrics.STAGE_TOTAL, ServerMetrics.NO_PAIR, startNanos);
+                        ServerMetrics.response("https", response.code);
+                        loop.post(() -> onResponse(consumed, bytes, keepAlive));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                ServerMetrics.response("https", 503);
+                onResponse(consumed, encode(new Response(503, JsonWriter.object("error", "server busy")), false), false);
+            }
+        }
+
+        private void onResponse(int consumed, byte[] bytes, boolean keepAlive) {
+            if (closed) return;
+            try {
+                busy = false;
+                consume(consumed);
+                if (!keepAlive) closeAfterFlush = true;
+                send(bytes);
+                if (keepAlive && !closed) {
+                    // Pipelined requests may already be buffered.
+                    process();
+                }
+            } catch (Throwable t) {
+                close();
+            }
+        }
+
+        private void consume(int n) {
+            appIn.flip();
+            appIn.position(n);
+            appIn.compact();
+        }
+
+        private void send(byte[] bytes) throws IOException {
+            wrap(ByteBuffer.wrap(bytes));
+            flush();
+        }
+
+        private void wrap(ByteBuffer src) throws SSLException {
+            do {
+                SSLEngineResult r = engine.wrap(src, netOut);
+                if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+                } else if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    return;
+                } else if (r.bytesConsumed() == 0 && r.bytesProduced() == 0) {
+                    return;
+                }
+            } while (src.hasRemaining());
+        }
+
+        void flush() throws IOException {
+            if (closed) return;
+            netOut.flip();
+            try {
+                channel.write(netOut);
+            } finally {
+                netOut.compact();
+            }
+            lastActive = System.currentTimeMillis();
+            if (netOut.position() == 0 && closeAfterFlush) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (closed || !key.isValid()) return;
+            int ops = 0;
+            if (!busy) ops |= SelectionKey.OP_READ;
+            if (netOut.position() > 0) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            connections.decrementAndGet();
+            try {
+                engine.closeOutbound();
+                wrap(ByteBuffer.allocate(0));
+                netOut.flip();
+                channel.write(netOut);
+            } catch (Throwable ignored) {
+            }
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    private static byte[] encode(Response response, boolean keepAlive) {
+        String status = switch (response.code) {
+            case 200 -> "OK";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 503 -> "Service Unavailable";
+            default -> "Internal Server Error";
+        };
+        byte[] content = response.body == null ? EMPTY_OBJECT : response.body;
+        String headers = "HTTP/1.1 " + response.code + " " + status + "\r\n"
+                + "Content-Type: " + response.contentType + "\r\n"
+                + "Access-Control-Allow-Origin: *\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                + "Content-Length: " + content.length + "\r\n\r\n";
+        byte[] head = headers.getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[head.length + content.length];
+        System.arraycopy(head, 0, out, 0, head.length);
+        System.arraycopy(content, 0, out, head.length, content.length);
+        return out;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buf, int atLeast) {
+        ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() + Math.max(atLeast, buf.capacity()));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    /** Index just past the blank line ending the head, or -1. */
+    private static int indexOfHeadEnd(byte[] a, int len) {
+        for (int i = 3; i < len; i++) {
+            if (a[i] == '\n' && a[i - 1] == '\r' && a[i - 2] == '\n' && a[i - 3] == '\r') return i + 1;
+        }
+        return -1;
+    }
+
+    /** Index of {@code b} in [from, to), or {@code to} when absent. */
+    private static int indexOf(byte[] a, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (a[i] == b) return i;
+        }
+        return to;
+    }
+
+    private static boolean regionEquals(byte[] a, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (a[from + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Whether a header named {@code name} (lowercase, with colon) contains {@code token}, ignoring case. */
+    private static boolean headerContains(byte[] a, int from, int to, String name, String token) {
+        int i = from;
+        while (i < to) {
+            int lineStart = i + (a[i] == '\r' ? 2 : 0);
+            int lineEnd = indexOf(a, (byte) '\r', lineStart, to);
+            if (startsWithIgnoreCase(a, lineStart, lineEnd, name)) {
+                for (int j = lineStart + name.length(); j + token.length() <= lineEnd; j++) {
+                    if (startsWithIgnoreCase(a, j, lineEnd, token)) return true;
+                }
+            }
+            i = lineEnd;
+            if (i == lineStart) break;
+        }
+        return false;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] a, int from, int to, String s) {
+        if (to - from < s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int c = a[from + i];
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** application/x-www-form-urlencoded decoding ('+' is a space) straight from the buffer. */
+    private static String percentDecode(byte[] a, int from, int to) {
+        byte[] out = null;
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            byte b = a[i];
+            if (b != '%' && b != '+') {
+                if (out != null) out[n++] = b;
+                continue;
+            }
+            if (out == null) {
+                out = new byte[to - from];
+                n = i - from;
+                System.arraycopy(a, from, out, 0, n);
+            }
+            if (b == '+') {
+                out[n++] = ' ';
+            } else if (i + 2 < to && hex(a[i + 1]) >= 0 && hex(a[i + 2]) >= 0) {
+                out[n++] = (byte) ((hex(a[i + 1]) << 4) | hex(a[i + 2]));
+                i += 2;
+            } else {
+                out[n++] = b;
+            }
+        }
+        return out == null
+                ? new String(a, from, to - from, StandardCharsets.UTF_8)
+                : new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+
+    private static int parseIntOr(String s, int fallback) {
+        if (s == null) return fallback;
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel ch) {
+        try { ch.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,203 @@
+package tianci.dev.xptranslatetext.service;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Worker pool of the local server, shared by both transports.
+ *
+ * Requests wait in one lane per priority ({@link LocalSocketProtocol#PRIORITY_QUICK} first,
+ * then foreground, then background). Inside a lane every caller has its own FIFO and the
+ * callers take turns, each taking as many requests per turn as its weight (1 unless set with
+ * {@link #setWeight}), so a prefetch flood from one app only delays that app's own requests. A request whose client has already given up (its deadline passed while
+ * it was queued) is answered with {@link Task#drop} instead of being translated.
+ */
+final class RequestScheduler {
+
+    private static final String TAG = "LocalTranslation";
+
+    /** Deadline of requests whose client did not send a budget. */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int LANES = 3;
+    private static final int DEFAULT_WEIGHT = 1;
+
+    interface Task {
+        void run();
+
+        /** Answers the request without running it; called on a worker thread. */
+        void drop(String reason);
+    }
+
+    private static final class Item {
+        final Task task;
+        final long deadline;
+        final long queuedAtNanos = System.nanoTime();
+
+        Item(Task task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final class AppQueue {
+        final String caller;
+        final int weight;
+        final ArrayDeque<Item> items = new ArrayDeque<>();
+        /** Requests taken in the current turn. */
+        int taken;
+
+        AppQueue(String caller, int weight) {
+            this.caller = caller;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Lane {
+        /** Apps with queued requests, in turn order. */
+        final ArrayDeque<AppQueue> turns = new ArrayDeque<>();
+        final Map<String, AppQueue> byCaller = new HashMap<>();
+    }
+
+    private final int maxQueued;
+    private final Lane[] lanes = new Lane[LANES];
+    // Guarded by this.
+    private final Map<String, Integer> weights = new HashMap<>();
+    private final Thread[] workers;
+    // Guarded by this.
+    private int queued;
+    private final int[] laneDepth = new int[LANES];
+    private boolean stopped;
+
+    RequestScheduler(int workerCount, int maxQueued) {
+        this.maxQueued = maxQueued;
+        for (int i = 0; i < LANES; i++) lanes[i] = new Lane();
+        this.workers = new Thread[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            Thread t = new Thread(this::workLoop, "LocalTrans-Worker");
+            t.setDaemon(true);
+            workers[i] = t;
+        }
+    }
+
+    /** Requests waiting in the lane of {@code priority}. */
+    synchronized int queued(int priority) {
+        return laneDepth[priority];
+    }
+
+    /** Requests {@code caller} takes per turn; applies once the caller has nothing queued. */
+    synchronized void setWeight(String caller, int weight) {
+        weights.put(caller, Math.max(1, weight));
+    }
+
+    void start() {
+        for (Thread t : workers) t.start();
+    }
+
+    /**
+     * Queues {@code task}. {@code deadline} is in {@link SystemClock#uptimeMillis()} time.
+     *
+     * @throws RejectedExecutionException when the queue is full or the scheduler stopped.
+     */
+    synchronized void submit(byte priority, String caller, long deadline, Task task) {
+        if (stopped || queued >= maxQueued) {
+            ServerMetrics.rejected("busy");
+            throw new RejectedExecutionException("server busy");
+        }
+        int l = Math.max(0, Math.min(LANES - 1, priority));
+        Lane lane = lanes[l];
+        String key = caller == null ? "" : caller;
+        AppQueue q = lane.byCaller.get(key);
+        if (q == null) {
+            Integer weight = weights.get(key);
+            q = new AppQueue(key, weight == null ? DEFAULT_WEIGHT : weight);
+            lane.byCaller.put(key, q);
+            lane.turns.add(q);
+        }
+        q.items.add(new Item(task, deadline));
+        queued++;
+        laneDepth[l]++;
+        notify();
+    }
+
+    /** Stops the workers; queued requests are dropped. */
+    void shutdown() {
+        List<Item> left = new ArrayList<>();
+        synchronized (this) {
+            stopped = true;
+            for (Lane lane : lanes) {
+                for (AppQueue q : lane.turns) left.addAll(q.items);
+                lane.turns.clear();
+                lane.byCaller.clear();
+            }
+            queued = 0;
+            Arrays.fill(laneDepth, 0);
+            notifyAll();
+        }
+        for (Thread t : workers) t.interrupt();
+        for (Item item : left) drop(item, "server stopping");
+    }
+
+    private void workLoop() {
+        while (true) {
+            Item item;
+            try {
+                item = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (item == null) return;
+            ServerMetrics.since(ServerMetrics.STAGE_QUEUE, ServerMetrics.NO_PAIR, item.queuedAtNanos);
+            if (SystemClock.uptimeMillis() > item.deadline) {
+                ServerMetrics.rejected("deadline");
+                drop(item, "deadline exceeded");
+                continue;
+            }
+            try {
+                item.task.run();
+            } catch (Throwable t) {
+                Log.e(TAG, "request failed: " + t);
+            }
+        }
+    }
+
+    /** Next request in priority and turn order; null once stopped. */
+    private synchronized Item take() throws InterruptedException {
+        while (!stopped) {
+            for (int l = 0; l < LANES; l++) {
+                Lane lane = lanes[l];
+                AppQueue q = lane.turns.peek();
+                if (q == null) continue;
+                Item item = q.items.poll();
+                if (q.items.isEmpty()) {
+                    lane.turns.poll();
+                    lane.byCaller.remove(q.caller);
+                } else if (++q.taken >= q.weight) {
+                    q.taken = 0;
+                    lane.turns.add(lane.turns.poll());
+                }
+                queued--;
+                laneDepth[l]--;
+                return item;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    private static void drop(Item item, String reason) {
+        try {
+            item.task.drop(reason);
+        } catch (Throwable t) {
+            Log.e(TAG, "request drop failed: " + t);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package tianci.dev.xptranslatetext.service;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters of the local server, exposed on {@code /metrics} in the
+ * Prometheus text format.
+ *
+ * Recording is a handful of atomic increments on preallocated buckets, without locks; all the
+ * work of turning buckets into quantiles happens when the endpoint is read.
+ */
+final class ServerMetrics {
+
+    // Stages of a request, in the order it goes through them.
+    static final String STAGE_PARSE = "parse";
+    static final String STAGE_QUEUE = "queue";
+    static final String STAGE_LANG_ID = "lang_id";
+    static final String STAGE_TRANSLATOR_CREATE = "translator_create";
+    static final String STAGE_MODEL_DOWNLOAD = "model_download";
+    static final String STAGE_TRANSLATE = "translate";
+    static final String STAGE_HANT = "hans_to_hant";
+    static final String STAGE_WRITE = "write";
+    static final String STAGE_TOTAL = "total";
+
+    /** Label value for stages that run before the language pair is known. */
+    static final String NO_PAIR = "-";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * Log-linear histogram of microsecond values, HDR style: every power-of-two range is split
+     * into {@link #SUB_BUCKETS} equal buckets, so any value is stored within 1/{@code SUB_BUCKETS}
+     * of its size, from 1 µs up to a few minutes.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int RANGES = 27;
+
+        private final AtomicLongArray counts = new AtomicLongArray(RANGES * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void recordNanos(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts.incrementAndGet(index(micros));
+            count.increment();
+            sumMicros.add(micros);
+            long max;
+            while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) { }
+        }
+
+        static int index(long micros) {
+            if (micros < SUB_BUCKETS) return (int) micros;
+            int range = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS + 1;
+            if (range >= RANGES) return RANGES * SUB_BUCKETS - 1;
+            int sub = (int) (micros >>> (range - 1)) & (SUB_BUCKETS - 1);
+            return range * SUB_BUCKETS + sub;
+        }
+
+        /** Upper bound of bucket {@code i}, in microseconds. */
+        static long upperBound(int i) {
+            int range = i / SUB_BUCKETS;
+            int sub = i % SUB_BUCKETS;
+            if (range == 0) return sub + 1;
+            return ((long) (SUB_BUCKETS + sub + 1)) << (range - 1);
+        }
+
+        /** Appends quantile, sum and count lines of a Prometheus summary. */
+        void appendTo(StringBuilder sb, String name, String labels) {
+            long[] snapshot = new long[counts.length()];
+            long total = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            for (double q : QUANTILES) {
+                long rank = (long) Math.ceil(q * total);
+                long seen = 0;
+                long value = 0;
+                for (int i = 0; i < snapshot.length && total > 0; i++) {
+                    seen += snapshot[i];
+                    if (seen >= rank) {
+                        value = Math.min(upperBound(i), maxMicros.get());
+                        break;
+                    }
+                }
+                sb.append(name).append("{").append(labels).append(",quantile=\"").append(q).append("\"} ")
+                        .append(seconds(value)).append('\n');
+            }
+            sb.append(name).append("_sum{").append(labels).append("} ").append(seconds(sumMicros.sum())).append('\n');
+            sb.append(name).append("_count{").append(labels).append("} ").append(count.sum()).append('\n');
+        }
+    }
+
+    private static final Map<String, Histogram> STAGES = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    private ServerMetrics() { }
+
+    /** Records that {@code stage} of a request for {@code pair} took {@code nanos}. */
+    static void record(String stage, String pair, long nanos) {
+        String key = stage + '|' + (pair == null ? NO_PAIR : pair);
+        Histogram h = STAGES.get(key);
+        if (h == null) h = STAGES.computeIfAbsent(key, k -> new Histogram());
+        h.recordNanos(nanos);
+    }
+
+    /** Records {@code stage} as having run from {@code startNanos} until now. */
+    static void since(String stage, String pair, long startNanos) {
+        record(stage, pair, System.nanoTime() - startNanos);
+    }
+
+    /** Counts one response by HTTP-style status class (2xx, 4xx, 5xx) and transport. */
+    static void response(String transport, int code) {
+        count("xp_local_responses_total{transport=\"" + transport + "\",code=\"" + (code / 100) + "xx\"}");
+    }
+
+    /** Counts a request answered busy without translating: queue full, or deadline passed while queued. */
+    static void rejected(String reason) {
+        count("xp_local_rejected_total{reason=\"" + reason + "\"}");
+    }
+
+    /** Counts how the result cache answered: hit, joined (in-flight duplicate) or miss. */
+    static void cache(String result) {
+        count("xp_local_cache_total{result=\"" + result + "\"}");
+    }
+
+    private static void count(String series) {
+        LongAdder c = COUNTERS.get(series);
+        if (c == null) c = COUNTERS.computeIfAbsent(series, k -> new LongAdder());
+        c.increment();
+    }
+
+    /**
+     * Renders every series; {@code gauges} (series → value) are sampled by the caller at read
+     * time, e.g. queue depths.
+     */
+    static String render(Map<String, Long> gauges) {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# TYPE xp_local_stage_seconds summary\n");
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(STAGES).entrySet()) {
+            int bar = e.getKey().indexOf('|');
+            String labels = "stage=\"" + e.getKey().substring(0, bar) + "\",pair=\"" + e.getKey().substring(bar + 1) + "\"";
+            e.getValue().appendTo(sb, "xp_local_stage_seconds", labels);
+        }
+        String lastFamily = null;
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(COUNTERS).entrySet()) {
+            String family = e.getKey().substring(0, e.getKey().indexOf('{'));
+            if (!family.equals(lastFamily)) {
+                sb.append("# TYPE ").append(family).append(" counter\n");
+                lastFamily = family;
+            }
+            sb.append(e.getKey()).append(' ').append(e.getValue().sum()).append('\n');
+        }
+        lastFamily = null;
+        for (Map.Entry<String, Long> e : new TreeMap<>(gauges).entrySet()) {
+            int brace = e.getKey().indexOf('{');
+            String family = brace < 0 ? e.getKey() : e.getKey().substring(0, brace);
+            if (!family.equals(lastFamily)) {
+                sb.append("# TYPE ").append(family).append(" gauge\n");
+                lastFamily = family;
+            }
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+}
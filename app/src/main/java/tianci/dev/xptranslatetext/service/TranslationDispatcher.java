@@ -0,0 +1,357 @@
+package tianci.dev.xptranslatetext.service;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.common.model.DownloadConditions;
+import com.google.mlkit.nl.translate.Translator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import tianci.dev.xptranslatetext.translate.SentenceSegmenter;
+
+/**
+ * Micro-batches ML Kit translations per language pair.
+ *
+ * Requests for the same (mlSrc, mlDst) join that pair's lane. The first request of a burst
+ * opens a window of at most {@code maxLingerMs}; the lane is then drained in batches of up to
+ * {@code maxBatch} texts, all issued to one translator before any result is awaited, and keeps
+ * draining while requests arrive. A full batch does not wait for the window to close.
+ *
+ * A lane may run up to {@code translatorsPerPair} drains at once, each on its own translator:
+ * one more per full batch waiting, and one per shard for a long text split by
+ * {@link #translateLong}, so a single long message spreads over several cores.
+ *
+ * Translators stay open between batches, so a pair's model is loaded and checked once rather
+ * than per request; they are closed after {@link #IDLE_CLOSE_MS} without use, or after a
+ * failure (the model may have been deleted from the model manager).
+ */
+final class TranslationDispatcher {
+
+    static final int DEFAULT_MAX_BATCH = 16;
+    static final int DEFAULT_MAX_LINGER_MS = 4;
+
+    /** Texts at least this long are sharded by {@link #translateLong}. */
+    static final int SHARD_MIN_CHARS = 400;
+    // Shards shorter than this lose more context than the parallelism gains back.
+    private static final int MIN_SHARD_CHARS = 150;
+    private static final int MAX_SENTENCE_CHARS = 500;
+
+    private static final long IDLE_CLOSE_MS = 60_000;
+    // Longest wait for a request without a deadline; covers a first model download.
+    private static final long MAX_WAIT_MS = 120_000;
+
+    interface TranslatorFactory {
+        Translator create(String mlSrc, String mlDst);
+    }
+
+    private static final class Job {
+        final String text;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Job(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final class Lane {
+        final String mlSrc;
+        final String mlDst;
+        final String pair;
+        // Guarded by the lane.
+        final ArrayDeque<Job> queue = new ArrayDeque<>();
+        final ArrayDeque<Translator> idle = new ArrayDeque<>();
+        int drains;
+        ScheduledFuture<?> window;
+        long lastUsed;
+
+        Lane(String mlSrc, String mlDst) {
+            this.mlSrc = mlSrc;
+            this.mlDst = mlDst;
+            this.pair = mlSrc + '>' + mlDst;
+        }
+    }
+
+    private final TranslatorFactory factory;
+    private final int maxBatch;
+    private final long maxLingerMs;
+    private final int translatorsPerPair;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor executor;
+    private volatile boolean stopped;
+
+    TranslationDispatcher(TranslatorFactory factory, int maxBatch, long maxLingerMs, int translatorsPerPair) {
+        this.factory = factory;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxLingerMs = Math.max(0, maxLingerMs);
+        this.translatorsPerPair = Math.max(1, translatorsPerPair);
+        // Drains mostly wait on ML Kit; leave room for a second pair running alongside.
+        this.executor = new ScheduledThreadPoolExecutor(Math.max(2, this.translatorsPerPair * 2), r -> {
+            Thread t = new Thread(r, "LocalTrans-Batch");
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.executor.scheduleWithFixedDelay(this::closeIdle, IDLE_CLOSE_MS, IDLE_CLOSE_MS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /** Default core budget: half the cores, at most four translators per pair. */
+    static int defaultTranslatorsPerPair() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * Blocks until {@code text} has been translated as part of a batch, or until
+     * {@code deadline} ({@link SystemClock#uptimeMillis()} time, or
+     * {@link RequestScheduler#NO_DEADLINE}); then the job is dropped and a
+     * {@link TimeoutException} thrown.
+     */
+    String translate(String mlSrc, String mlDst, String text, long deadline)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        Lane lane = lane(mlSrc, mlDst);
+        Job job = new Job(text);
+        List<Job> jobs = new ArrayList<>(1);
+        jobs.add(job);
+        enqueue(lane, jobs, false);
+        return await(lane, jobs, job, deadline);
+    }
+
+    /**
+     * Splits {@code text} at sentence boundaries into about one shard per translator, translates
+     * the shards concurrently and joins them in order. Blocks until all shards are done or
+     * {@code deadline} passes, as {@link #translate}.
+     */
+    String translateLong(String mlSrc, String mlDst, String text, long deadline)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        List<String> shards = shard(text, Locale.forLanguageTag(mlSrc));
+        if (shards.size() < 2) return translate(mlSrc, mlDst, text, deadline);
+
+        List<Job> jobs = new ArrayList<>(shards.size());
+        for (String shard : shards) {
+            String core = shard.trim();
+            if (!core.isEmpty()) jobs.add(new Job(core));
+        }
+        Lane lane = lane(mlSrc, mlDst);
+        enqueue(lane, jobs, true);
+
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        int j = 0;
+        for (String shard : shards) {
+            String core = shard.trim();
+            if (core.isEmpty()) {
+                sb.append(shard);
+                continue;
+            }
+            // Keep the whitespace around each shard, which the model would drop.
+            int lead = shard.indexOf(core);
+            sb.append(shard, 0, lead).append(await(lane, jobs, jobs.get(j++), deadline)).append(shard, lead + core.length(), shard.length());
+        }
+        return sb.toString();
+    }
+
+    void shutdown() {
+        stopped = true;
+        executor.shutdownNow();
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                for (Job job : lane.queue) {
+                    job.result.completeExceptionally(new InterruptedException("dispatcher stopped"));
+                }
+                lane.queue.clear();
+                closeIdleTranslators(lane);
+            }
+        }
+    }
+
+    /**
+     * Result of {@code job}, waiting at most until {@code deadline}. When the wait times out, is
+     * interrupted or the job fails, {@code group} (the jobs of the same request, such as the
+     * other shards of a long text) is abandoned: its result can no longer be used.
+     */
+    private String await(Lane lane, List<Job> group, Job job, long deadline)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        long waitMs = Math.min(MAX_WAIT_MS, deadline - SystemClock.uptimeMillis());
+        try {
+            return job.result.get(Math.max(0, waitMs), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException | ExecutionException e) {
+            abandon(lane, group, e);
+            throw e;
+        }
+    }
+
+    /** Takes the unfinished {@code jobs} off the lane and fails them, so no drain translates them. */
+    private static void abandon(Lane lane, List<Job> jobs, Throwable why) {
+        synchronized (lane) {
+            lane.queue.removeAll(jobs);
+        }
+        for (Job job : jobs) {
+            job.result.completeExceptionally(why);
+        }
+    }
+
+    private Lane lane(String mlSrc, String mlDst) {
+        return lanes.computeIfAbsent(mlSrc + '>' + mlDst, k -> new Lane(mlSrc, mlDst));
+    }
+
+    /** Texts waiting for a translator, over all pairs. */
+    int queued() {
+        int n = 0;
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                n += lane.queue.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Queues {@code jobs} and starts drains for them: one per full batch for ordinary requests,
+     * one per job for shards ({@code spread}), within the translator budget.
+     */
+    private void enqueue(Lane lane, List<Job> jobs, boolean spread) {
+        synchronized (lane) {
+            lane.queue.addAll(jobs);
+            int perDrain = spread ? 1 : maxBatch;
+            if (!spread && lane.drains == 0 && lane.queue.size() < maxBatch && maxLingerMs > 0) {
+                lane.drains = 1;
+                lane.window = executor.schedule(() -> drain(lane), maxLingerMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (!spread && lane.window != null && lane.queue.size() < maxBatch) {
+                // The open window collects this request too; only a full batch or shards close it early.
+                return;
+            }
+            if (lane.window != null && lane.window.cancel(false)) {
+                lane.window = null;
+                lane.drains--;
+            }
+            int wanted = Math.min(translatorsPerPair, Math.max(1, (lane.queue.size() + perDrain - 1) / perDrain));
+            while (lane.drains < wanted) {
+                lane.drains++;
+                executor.execute(() -> drain(lane));
+            }
+        }
+    }
+
+    private void drain(Lane lane) {
+        Translator translator = null;
+        while (true) {
+            List<Job> batch = new ArrayList<>();
+            synchronized (lane) {
+                lane.window = null;
+                // Share what is queued among the running drains.
+                int take = Math.min(maxBatch, (lane.queue.size() + lane.drains - 1) / lane.drains);
+                while (batch.size() < take && !lane.queue.isEmpty()) {
+                    batch.add(lane.queue.poll());
+                }
+                if (batch.isEmpty()) {
+                    lane.drains--;
+                    lane.lastUsed = SystemClock.uptimeMillis();
+                    if (translator != null) {
+                        if (stopped) closeQuietly(translator);
+                        else lane.idle.push(translator);
+                    }
+                    return;
+                }
+                if (translator == null) translator = lane.idle.poll();
+            }
+            translator = runBatch(lane, translator, batch);
+        }
+    }
+
+    /** Returns the translator to keep using, or null when it failed and was closed. */
+    private Translator runBatch(Lane lane, Translator translator, List<Job> batch) {
+        try {
+            if (translator == null) {
+                long createStart = System.nanoTime();
+                translator = factory.create(lane.mlSrc, lane.mlDst);
+                ServerMetrics.since(ServerMetrics.STAGE_TRANSLATOR_CREATE, lane.pair, createStart);
+                long downloadStart = System.nanoTime();
+                Tasks.await(translator.downloadModelIfNeeded(new DownloadConditions.Builder().build()));
+                ServerMetrics.since(ServerMetrics.STAGE_MODEL_DOWNLOAD, lane.pair, downloadStart);
+            }
+
+            // Skip jobs abandoned since they were taken, such as shards of a failed long text.
+            batch.removeIf(job -> job.result.isDone());
+            if (batch.isEmpty()) return translator;
+
+            // Hand the whole batch to ML Kit first so it can work through it back to back.
+            long issued = System.nanoTime();
+            List<Task<String>> tasks = new ArrayList<>(batch.size());
+            for (Job job : batch) {
+                tasks.add(translator.translate(job.text));
+            }
+            boolean failed = false;
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    String translated = Tasks.await(tasks.get(i));
+                    ServerMetrics.since(ServerMetrics.STAGE_TRANSLATE, lane.pair, issued);
+                    batch.get(i).result.complete(translated);
+                } catch (ExecutionException e) {
+                    failed = true;
+                    batch.get(i).result.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+                }
+            }
+            if (!failed) return translator;
+        } catch (Throwable t) {
+            for (Job job : batch) {
+                job.result.completeExceptionally(t);
+            }
+        }
+        closeQuietly(translator);
+        return null;
+    }
+
+    private void closeIdle() {
+        long now = SystemClock.uptimeMillis();
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                if (lane.drains == 0 && now - lane.lastUsed >= IDLE_CLOSE_MS) {
+                    closeIdleTranslators(lane);
+                }
+            }
+        }
+    }
+
+    private static void closeIdleTranslators(Lane lane) {
+        for (Translator t : lane.idle) closeQuietly(t);
+        lane.idle.clear();
+    }
+
+    private static void closeQuietly(Translator t) {
+        if (t == null) return;
+        try { t.close(); } catch (Throwable ignored) {}
+    }
+
+    /**
+     * Consecutive sentences of {@code text} grouped into about {@link #translatorsPerPair}
+     * shards of similar length; concatenating the shards restores the text.
+     */
+    private List<String> shard(String text, Locale locale) {
+        List<String> sentences = SentenceSegmenter.chunks(text, locale, MAX_SENTENCE_CHARS);
+        int target = Math.max(MIN_SHARD_CHARS, (text.length() + translatorsPerPair - 1) / translatorsPerPair);
+        List<String> shards = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String sentence : sentences) {
+            if (current.length() > 0 && current.length() + sentence.length() > target) {
+                shards.add(current.toString());
+                current.setLength(0);
+            }
+            current.append(sentence);
+        }
+        if (current.length() > 0) shards.add(current.toString());
+        return shards;
+    }
+}
@@ -0,0 +1,105 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.os.SystemClock;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Per-process circuit breaker in front of one backend.
+ *
+ * While closed, calls go through. After {@code failureThreshold} consecutive connect failures it
+ * opens, and {@link #allowRequest()} returns false for every caller at once. Callers then move
+ * on to their fallback immediately instead of each waiting out its own connect timeout.
+ *
+ * While open, the first call after the open interval half-opens the breaker and starts one
+ * background {@link Probe}. A healthy probe closes the breaker. A failed one reopens it for
+ * twice as long, up to {@code maxOpenMs}. A successful call from a request that was already in
+ * flight also closes it.
+ */
+final class CircuitBreaker {
+
+    interface Probe {
+        /** True when the backend answered; runs on a background thread. */
+        boolean healthy() throws Exception;
+    }
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final String name;
+    private final int failureThreshold;
+    private final long minOpenMs;
+    private final long maxOpenMs;
+    private final Probe probe;
+
+    // Written under this; read without it on the request path.
+    private volatile int state = CLOSED;
+    // Guarded by this.
+    private int failures;
+    private long openMs;
+    private long probeAt;
+
+    CircuitBreaker(String name, int failureThreshold, long minOpenMs, long maxOpenMs, Probe probe) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.minOpenMs = minOpenMs;
+        this.maxOpenMs = Math.max(minOpenMs, maxOpenMs);
+        this.probe = probe;
+    }
+
+    /** False while the backend is considered down; may start a probe. */
+    boolean allowRequest() {
+        if (state == CLOSED) return true;
+        synchronized (this) {
+            if (state != OPEN || SystemClock.uptimeMillis() < probeAt) return state == CLOSED;
+            state = HALF_OPEN;
+        }
+        startProbe();
+        return false;
+    }
+
+    /** The backend was reached. */
+    synchronized void onSuccess() {
+        failures = 0;
+        if (state != CLOSED) {
+            state = CLOSED;
+            XposedBridge.log("[" + name + "] reachable again, circuit closed");
+        }
+    }
+
+    /** Connecting to the backend failed. */
+    synchronized void onFailure() {
+        // Once open, only the probe decides when to try again.
+        if (state != CLOSED || ++failures < failureThreshold) return;
+        open(minOpenMs);
+        XposedBridge.log("[" + name + "] " + failures + " connect failures, circuit open for " + openMs + " ms");
+    }
+
+    private void open(long forMs) {
+        state = OPEN;
+        openMs = forMs;
+        probeAt = SystemClock.uptimeMillis() + forMs;
+    }
+
+    private void startProbe() {
+        Thread t = new Thread(() -> {
+            boolean healthy;
+            try {
+                healthy = probe.healthy();
+            } catch (Throwable e) {
+                healthy = false;
+            }
+            synchronized (this) {
+                if (state != HALF_OPEN) return;
+                if (healthy) {
+                    onSuccess();
+                } else {
+                    open(Math.min(maxOpenMs, openMs * 2));
+                }
+            }
+        }, "XPTranslate-Probe");
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,122 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import de.robv.android.xposed.XposedBridge;
+import tianci.dev.xptranslatetext.util.JsonReader;
+
+/** The keyless translate_a/single endpoint; last resort, its results are not persisted. */
+final class GoogleFreeApiProvider implements TranslationProvider {
+
+    static final String NAME = "free google api";
+
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final String USER_AGENT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/133.0.0.0 Safari/537.36";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int cost() {
+        return 1;
+    }
+
+    @Override
+    public int quality() {
+        return 0;
+    }
+
+    @Override
+    public int maxBatch() {
+        return 1;
+    }
+
+    @Override
+    public boolean persistResults() {
+        return false;
+    }
+
+    @Override
+    public boolean supports(String src, String dst) {
+        return true;
+    }
+
+    @Override
+    public boolean available() {
+        return true;
+    }
+
+    @Override
+    public List<String> translate(List<String> texts, String src, String dst, byte priority, HedgedCall.Leg leg) {
+        List<String> out = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            out.add(leg.cancelled() ? null : translateOne(text, src, dst, leg));
+        }
+        return out;
+    }
+
+    private String translateOne(String text, String src, String dst, HedgedCall.Leg leg) {
+        String cacheKey = src + ":" + dst + ":" + text;
+        try {
+            String urlStr = "https://translate.googleapis.com/translate_a/single"
+                    + "?client=gtx"
+                    + "&sl=" + URLEncoder.encode(src, "UTF-8")
+                    + "&tl=" + URLEncoder.encode(dst, "UTF-8")
+                    + "&dt=t"
+                    + "&q=" + URLEncoder.encode(text, "UTF-8");
+
+            HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("User-Agent", USER_AGENT);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout((int) leg.latency.timeoutMs());
+            leg.attach(conn);
+
+            XposedBridge.log(String.format(Locale.ROOT, "[%s] request sent, awaiting response from google free api ...", cacheKey));
+            try (InputStream in = conn.getInputStream()) {
+                return parseResult(cacheKey, JsonReader.readAll(in));
+            }
+        } catch (Exception e) {
+            XposedBridge.log(String.format("[%s] translate exception in google free api => ", cacheKey) + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Concatenates the translated pieces ({@code [0][i][0]}) of a reply. */
+    static String parseResult(String cacheKey, byte[] json) {
+        try {
+            JsonReader r = new JsonReader(json);
+            r.beginArray();
+            if (r.peek() != JsonReader.BEGIN_ARRAY) return null;
+            r.beginArray();
+            StringBuilder translatedText = new StringBuilder(json.length / 2);
+            while (r.hasNext()) {
+                if (r.peek() != JsonReader.BEGIN_ARRAY) {
+                    r.skipValue();
+                    continue;
+                }
+                r.beginArray();
+                if (r.hasNext()) {
+                    if (r.peek() == JsonReader.STRING) translatedText.append(r.nextString());
+                    else r.skipValue();
+                }
+                // Source text, transliteration and scores follow; none are needed.
+                while (r.hasNext()) r.skipValue();
+                r.endArray();
+            }
+            return translatedText.toString().trim();
+        } catch (IOException e) {
+            XposedBridge.log(String.format("[%s] parsing google free api exception response => %s", cacheKey, e.getMessage()));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one text through an ordered list of providers, hedging slow ones.
+ *
+ * The first leg starts alone. If it fails, the next leg starts right away, like the old
+ * sequential fallback. If it is only slow, still running after its
+ * {@link LatencyTracker#hedgeAfterMs()}, the next leg starts alongside it. The first non-null
+ * answer wins. The other legs are cancelled, which disconnects their HTTP connection and
+ * interrupts their thread.
+ *
+ * Once every leg has started, the call gives up when the last leg's own timeout has passed,
+ * so a provider that never answers (or never notices its timeout) cannot hold the caller.
+ */
+final class HedgedCall {
+
+    // Beyond a leg's read timeout: its connect timeout, and a little for the result to arrive.
+    private static final long LATE_MS = 3500;
+
+    interface Body {
+        /** The translation, or null on failure. */
+        String call(Leg leg) throws Exception;
+    }
+
+    static final class Leg {
+        final String name;
+        final LatencyTracker latency;
+        private final Body body;
+        private volatile String result;
+        private volatile boolean cancelled;
+        private volatile boolean unmeasured;
+        private volatile HttpURLConnection connection;
+        // Only touched by the thread running the call.
+        private Future<?> future;
+        private long giveUpNanos;
+
+        Leg(String name, LatencyTracker latency, Body body) {
+            this.name = name;
+            this.latency = latency;
+            this.body = body;
+        }
+
+        String result() {
+            return result;
+        }
+
+        boolean cancelled() {
+            return cancelled;
+        }
+
+        /** Registers the leg's connection, so that cancelling the leg also aborts its blocking I/O. */
+        void attach(HttpURLConnection conn) {
+            connection = conn;
+            if (cancelled) conn.disconnect();
+        }
+
+        /** Keeps this call out of {@link #latency}, e.g. when it was served by a larger batched request. */
+        void unmeasured() {
+            unmeasured = true;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            HttpURLConnection c = connection;
+            if (c != null) c.disconnect();
+            if (future != null) future.cancel(true);
+        }
+    }
+
+    private HedgedCall() { }
+
+    /** The leg that answered first, or null when every leg failed. */
+    static Leg run(List<Leg> legs, ExecutorService executor) throws InterruptedException {
+        BlockingQueue<Leg> done = new LinkedBlockingQueue<>();
+        List<Leg> started = new ArrayList<>(legs.size());
+        Leg winner = null;
+        int running = 0;
+        long lastStartNanos = 0;
+        try {
+            while (true) {
+                if (running == 0) {
+                    if (started.size() == legs.size()) return null;
+                    lastStartNanos = start(legs.get(started.size()), started, done, executor);
+                    running++;
+                    continue;
+                }
+
+                Leg finished;
+                if (started.size() < legs.size()) {
+                    Leg newest = started.get(started.size() - 1);
+                    long waitNanos = lastStartNanos + TimeUnit.MILLISECONDS.toNanos(newest.latency.hedgeAfterMs()) - System.nanoTime();
+                    finished = done.poll(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+                    if (finished == null) {
+                        // Slower than its p95: hedge with the next provider.
+                        lastStartNanos = start(legs.get(started.size()), started, done, executor);
+                        running++;
+                        continue;
+                    }
+                } else {
+                    long giveUpNanos = Long.MIN_VALUE;
+                    for (Leg leg : started) giveUpNanos = Math.max(giveUpNanos, leg.giveUpNanos);
+                    finished = done.poll(Math.max(0, giveUpNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    // Every leg is past its timeout; they are cancelled below.
+                    if (finished == null) return null;
+                }
+                running--;
+                if (finished.result != null) {
+                    winner = finished;
+                    return winner;
+                }
+            }
+        } finally {
+            for (Leg leg : started) {
+                if (leg != winner) leg.cancel();
+            }
+        }
+    }
+
+    private static long start(Leg leg, List<Leg> started, BlockingQueue<Leg> done, ExecutorService executor) {
+        started.add(leg);
+        long startNanos = System.nanoTime();
+        long timeoutMs = leg.latency.timeoutMs();
+        leg.giveUpNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs + LATE_MS);
+        leg.future = executor.submit(() -> {
+            String result = null;
+            try {
+                result = leg.body.call(leg);
+            } catch (Throwable ignored) {
+            }
+            leg.result = result;
+            long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            // Fast failures say nothing about latency, and a cancelled leg never finished, but
+            // calls that hit the timeout must count or the timeout could never grow back.
+            if (!leg.cancelled && !leg.unmeasured && (result != null || ms >= timeoutMs)) leg.latency.record(ms);
+            done.add(leg);
+        });
+        return startNanos;
+    }
+}
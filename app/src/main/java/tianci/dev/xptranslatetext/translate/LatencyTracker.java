@@ -0,0 +1,79 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.Arrays;
+
+/**
+ * Recent latencies of one translation provider, and the timeout and hedge delay derived from
+ * them.
+ *
+ * Keeps the last {@link #WINDOW} samples. Until {@link #MIN_SAMPLES} have been seen, the timeout
+ * is the provider's configured default and no hedge is sent early. After that, the timeout
+ * follows twice the p99 and the hedge delay follows the p95, both clamped to the provider's
+ * floor and ceiling.
+ */
+final class LatencyTracker {
+
+    private static final int WINDOW = 128;
+    private static final int MIN_SAMPLES = 8;
+
+    private final long floorMs;
+    private final long defaultMs;
+    private final long ceilingMs;
+
+    // Guarded by this.
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+    private long p95 = -1;
+    private long p99 = -1;
+    private boolean dirty;
+
+    LatencyTracker(long floorMs, long defaultMs, long ceilingMs) {
+        this.floorMs = floorMs;
+        this.defaultMs = defaultMs;
+        this.ceilingMs = Math.max(floorMs, ceilingMs);
+    }
+
+    synchronized void record(long ms) {
+        samples[next] = Math.max(0, ms);
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) count++;
+        dirty = true;
+    }
+
+    /** Read timeout to use for the next call. */
+    long timeoutMs() {
+        long p = p99();
+        return p < 0 ? defaultMs : clamp(p * 2);
+    }
+
+    /** How long to wait for this provider before hedging with the next one. */
+    long hedgeAfterMs() {
+        long p = p95();
+        return p < 0 ? timeoutMs() : Math.min(clamp(p), timeoutMs());
+    }
+
+    synchronized long p95() {
+        update();
+        return p95;
+    }
+
+    synchronized long p99() {
+        update();
+        return p99;
+    }
+
+    private long clamp(long ms) {
+        return Math.max(floorMs, Math.min(ceilingMs, ms));
+    }
+
+    private void update() {
+        if (!dirty) return;
+        dirty = false;
+        if (count < MIN_SAMPLES) return;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        p95 = sorted[(int) Math.ceil(count * 0.95) - 1];
+        p99 = sorted[(int) Math.ceil(count * 0.99) - 1];
+    }
+}
@@ -0,0 +1,270 @@
+package tianci.dev.xptranslatetext.translate;
+
+import com.google.mlkit.nl.translate.TranslateLanguage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import de.robv.android.xposed.XposedBridge;
+import tianci.dev.xptranslatetext.service.LocalSocketProtocol;
+import tianci.dev.xptranslatetext.service.LocalTranslationService;
+import tianci.dev.xptranslatetext.util.JsonReader;
+import tianci.dev.xptranslatetext.util.LocalCerts;
+
+/**
+ * On-device ML Kit translation through {@link LocalTranslationService}: the local socket
+ * first, then the pinned HTTPS endpoint. A {@link CircuitBreaker} skips both while the service
+ * is down.
+ */
+final class LocalServiceProvider implements TranslationProvider {
+
+    static final String NAME = "local service";
+
+    private static final int QUICK_CONNECT_TIMEOUT_MS = 150; // keep short to avoid UI jank
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private static final HostnameVerifier HOSTNAME_VERIFIER = (hostname, session) ->
+            "127.0.0.1".equals(hostname) || "localhost".equals(hostname) || "::1".equals(hostname);
+
+    // Quick path read timeout: (floor, default until measured, ceiling) in ms.
+    private final LatencyTracker quickLatency = new LatencyTracker(100, 250, 250); // keep short to avoid UI jank
+    // When the service is stopped, skip it for every segment instead of timing out on each.
+    private final CircuitBreaker breaker = new CircuitBreaker(NAME, 3, 2_000, 30_000, this::probeHealth);
+    private volatile SSLSocketFactory pinnedFactory;
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int cost() {
+        return 0;
+    }
+
+    @Override
+    public int quality() {
+        return 1;
+    }
+
+    @Override
+    public int maxBatch() {
+        // The service micro-batches on its side; requests are multiplexed on one socket.
+        return 1;
+    }
+
+    @Override
+    public boolean persistResults() {
+        return true;
+    }
+
+    @Override
+    public boolean supports(String src, String dst) {
+        return isMlKitLanguage(dst) && (src == null || "auto".equalsIgnoreCase(src) || isMlKitLanguage(src));
+    }
+
+    @Override
+    public boolean available() {
+        return breaker.allowRequest();
+    }
+
+    @Override
+    public List<String> translate(List<String> texts, String src, String dst, byte priority, HedgedCall.Leg leg) {
+        List<String> out = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            out.add(leg.cancelled() ? null : translateOne(text, src, dst, priority, leg));
+        }
+        return out;
+    }
+
+    /**
+     * Synchronous UI path: quick priority and a read timeout of at most 250 ms. It bypasses the
+     * bulkhead, since its callers already bound the total wait.
+     */
+    String translateQuick(String text, String src, String dst) {
+        long timeoutMs = quickLatency.timeoutMs();
+        long start = System.nanoTime();
+        String result = quickAttempt(text, src, dst, (int) timeoutMs);
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (result != null || ms >= timeoutMs) quickLatency.record(ms);
+        return result;
+    }
+
+    private String quickAttempt(String text, String src, String dst, int timeoutMs) {
+        if (!breaker.allowRequest()) return null;
+        try {
+            String result = LocalSocketClient.translate(text, src == null ? "auto" : src, dst == null ? "zh-TW" : dst,
+                    LocalSocketProtocol.PRIORITY_QUICK, timeoutMs);
+            breaker.onSuccess();
+            return result == null ? null : result.trim();
+        } catch (IOException e) {
+            // socket transport unavailable; use HTTPS below
+        }
+        // The breaker may have opened while this request was on the socket.
+        if (!breaker.allowRequest()) return null;
+        try {
+            HttpsURLConnection conn = open(text, src, dst, LocalSocketProtocol.PRIORITY_QUICK, timeoutMs);
+            // Quick timeouts for synchronous path
+            conn.setConnectTimeout(QUICK_CONNECT_TIMEOUT_MS);
+            return readReply(conn);
+        } catch (Exception e) {
+            // Keep quiet on quick path to avoid log flood
+            return null;
+        }
+    }
+
+    private String translateOne(String text, String src, String dst, byte priority, HedgedCall.Leg leg) {
+        String cacheKey = src + ":" + dst + ":" + text;
+        if (!breaker.allowRequest()) {
+            XposedBridge.log(String.format("[%s] local service circuit open, skipping", cacheKey));
+            return null;
+        }
+        int timeoutMs = (int) leg.latency.timeoutMs();
+        try {
+            String result = LocalSocketClient.translate(text, src == null ? "auto" : src, dst == null ? "zh-TW" : dst,
+                    priority, timeoutMs);
+            breaker.onSuccess();
+            return result == null ? null : result.trim();
+        } catch (IOException e) {
+            // socket transport unavailable (e.g. denied by SELinux); use HTTPS below
+        }
+        if (leg.cancelled() || !breaker.allowRequest()) return null;
+        try {
+            HttpsURLConnection conn = open(text, src, dst, priority, timeoutMs);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            leg.attach(conn);
+            XposedBridge.log(String.format("[%s] access local service => %s", cacheKey, conn.getURL()));
+            return readReply(conn);
+        } catch (Exception e) {
+            XposedBridge.log(String.format("[%s] translate exception in local service => %s", cacheKey, e.getMessage()));
+            return null;
+        }
+    }
+
+    private HttpsURLConnection open(String text, String src, String dst, byte priority, int timeoutMs) throws Exception {
+        String urlStr = String.format(
+                "https://127.0.0.1:%d/translate?src=%s&dst=%s&prio=%d&budget=%d&q=%s",
+                LocalTranslationService.PORT,
+                URLEncoder.encode(src == null ? "auto" : src, "UTF-8"),
+                URLEncoder.encode(dst == null ? "zh-TW" : dst, "UTF-8"),
+                priority,
+                timeoutMs,
+                URLEncoder.encode(text, "UTF-8")
+        );
+        HttpsURLConnection conn = (HttpsURLConnection) new URL(urlStr).openConnection();
+        conn.setSSLSocketFactory(pinnedFactory());
+        conn.setHostnameVerifier(HOSTNAME_VERIFIER);
+        conn.setRequestMethod("GET");
+        conn.setReadTimeout(timeoutMs);
+        return conn;
+    }
+
+    private String readReply(HttpURLConnection conn) throws IOException {
+        connect(conn);
+        if (conn.getResponseCode() != 200) {
+            return null;
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return parseResult(JsonReader.readAll(in));
+        }
+    }
+
+    /** Connects {@code conn}, reporting the outcome to the breaker. */
+    private void connect(HttpURLConnection conn) throws IOException {
+        try {
+            conn.connect();
+        } catch (IOException e) {
+            breaker.onFailure();
+            throw e;
+        }
+        breaker.onSuccess();
+    }
+
+    /** Probe of the breaker: whether {@code /health} answers. */
+    private boolean probeHealth() throws Exception {
+        URL url = new URL("https://127.0.0.1:" + LocalTranslationService.PORT + "/health");
+        HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+        conn.setSSLSocketFactory(pinnedFactory());
+        conn.setHostnameVerifier(HOSTNAME_VERIFIER);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(CONNECT_TIMEOUT_MS);
+        try {
+            return conn.getResponseCode() == 200;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private SSLSocketFactory pinnedFactory() throws Exception {
+        if (pinnedFactory != null) return pinnedFactory;
+        synchronized (this) {
+            if (pinnedFactory != null) return pinnedFactory;
+
+            // Always use built-in PEM to avoid package/asset lookup failures across users/profiles
+            try (InputStream certStream = LocalCerts.openLocalHttpsServerCrt()) {
+                CertificateFactory cf = CertificateFactory.getInstance("X.509");
+                X509Certificate cert = (X509Certificate) cf.generateCertificate(certStream);
+
+                KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+                ks.load(null);
+                ks.setCertificateEntry("local", cert);
+
+                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                tmf.init(ks);
+
+                SSLContext sc = SSLContext.getInstance("TLS");
+                sc.init(null, tmf.getTrustManagers(), new SecureRandom());
+                pinnedFactory = sc.getSocketFactory();
+                return pinnedFactory;
+            }
+        }
+    }
+
+    /** The "text" of a local service reply whose "code" is 0, else null. */
+    static String parseResult(byte[] body) throws IOException {
+        JsonReader r = new JsonReader(body);
+        r.beginObject();
+        long code = -1;
+        String text = null;
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if ("code".equals(name) && r.peek() == JsonReader.NUMBER) {
+                code = r.nextLong();
+            } else if ("text".equals(name) && r.peek() == JsonReader.STRING) {
+                text = r.nextString();
+            } else {
+                r.skipValue();
+            }
+        }
+        return code == 0 && text != null ? text.trim() : null;
+    }
+
+    /** Mirrors the service's mapping: every Chinese variant is ML Kit "zh". */
+    private static boolean isMlKitLanguage(String tag) {
+        if (tag == null) return true;
+        String lower = tag.replace('_', '-').toLowerCase(Locale.ROOT);
+        if (lower.equals("zh") || lower.startsWith("zh-")) return true;
+        try {
+            return TranslateLanguage.fromLanguageTag(tag) != null;
+        } catch (Throwable t) {
+            // Let the service decide.
+            return true;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tianci.dev.xptranslatetext.service.LocalSocketProtocol;
+
+/**
+ * Client side of the abstract-namespace socket to {@link tianci.dev.xptranslatetext.service.LocalTranslationService}.
+ *
+ * One connection per process carries all concurrent requests; a reader thread matches
+ * responses to waiting callers by request id. When the socket cannot be reached (service not
+ * running, or blocked by SELinux on this device) callers get an {@link IOException} and use the
+ * HTTPS endpoint instead; connecting is then retried only after a back-off.
+ */
+public final class LocalSocketClient {
+
+    private static final long RECONNECT_BACKOFF_MS = 10_000;
+
+    private static final Object LOCK = new Object();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static Connection connection;
+    private static long retryAt;
+
+    private static final class Connection {
+        final LocalSocket socket;
+        final OutputStream out;
+        final DataInputStream in;
+        final Map<Integer, CompletableFuture<LocalSocketProtocol.Response>> pending = new ConcurrentHashMap<>();
+        volatile boolean closed;
+
+        Connection(LocalSocket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Thread reader = new Thread(this::readLoop, "XPTranslate-LocalSock");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(byte[] frame) throws IOException {
+            synchronized (out) {
+                LocalSocketProtocol.writeFrame(out, frame);
+            }
+        }
+
+        private void readLoop() {
+            try {
+                while (!closed) {
+                    LocalSocketProtocol.Response r = LocalSocketProtocol.decodeResponse(LocalSocketProtocol.readFrame(in));
+                    CompletableFuture<LocalSocketProtocol.Response> f = pending.remove(r.id);
+                    if (f != null) f.complete(r);
+                }
+            } catch (IOException | RuntimeException e) {
+                // connection lost or garbled; waiting callers fall back to HTTPS. This thread
+                // lives in the hooked app, so nothing may escape it.
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            closed = true;
+            try { socket.close(); } catch (IOException ignored) {}
+            IOException lost = new IOException("local socket closed");
+            for (CompletableFuture<LocalSocketProtocol.Response> f : pending.values()) {
+                f.completeExceptionally(lost);
+            }
+            pending.clear();
+        }
+    }
+
+    private LocalSocketClient() { }
+
+    /**
+     * Translates {@code text} over the local socket. {@code timeoutMs} also travels to the
+     * service, which drops the request instead of translating it once that much time has passed.
+     *
+     * @return the translation; null when the service answered with an error or did not answer
+     *         within {@code timeoutMs}.
+     * @throws IOException when the transport is unavailable or broke before answering.
+     */
+    public static String translate(String text, String src, String dst, byte priority, long timeoutMs) throws IOException {
+        Connection c = connection();
+        int id = NEXT_ID.incrementAndGet();
+        CompletableFuture<LocalSocketProtocol.Response> f = new CompletableFuture<>();
+        c.pending.put(id, f);
+        try {
+            c.send(LocalSocketProtocol.encodeRequest(new LocalSocketProtocol.Request(id, priority, (int) timeoutMs, src, dst, text)));
+        } catch (IOException e) {
+            c.pending.remove(id);
+            c.close();
+            throw e;
+        }
+
+        try {
+            LocalSocketProtocol.Response r = f.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return r.status == LocalSocketProtocol.STATUS_OK ? r.text : null;
+        } catch (TimeoutException e) {
+            c.pending.remove(id);
+            return null;
+        } catch (InterruptedException e) {
+            c.pending.remove(id);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Connection connection() throws IOException {
+        synchronized (LOCK) {
+            if (connection != null && !connection.closed) return connection;
+            long now = SystemClock.uptimeMillis();
+            if (now < retryAt) throw new IOException("local socket unavailable");
+            LocalSocket socket = new LocalSocket();
+            try {
+                socket.connect(new LocalSocketAddress(LocalSocketProtocol.SOCKET_NAME, LocalSocketAddress.Namespace.ABSTRACT));
+                connection = new Connection(socket);
+                return connection;
+            } catch (IOException e) {
+                retryAt = now + RECONNECT_BACKOFF_MS;
+                try { socket.close(); } catch (IOException ignored) {}
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Learned translations for strings that differ only in their numbers
+ * (timers, percentages, counters), e.g. "Uploading 45%" -> "上傳中 45%".
+ *
+ * A template is learned from one real translation when every number of the source appears
+ * exactly once in the translation; later strings with the same shape are rendered locally
+ * by substituting their numbers, without any translation request.
+ */
+public final class NumericTemplates {
+
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:[.,:]\\d+)*");
+    private static final char SLOT = '\u0001';
+    private static final int MAX_TEMPLATES = 512;
+
+    /** Translated text split around number slots; {@code order[i]} is the source number in slot i. */
+    private static final class Template {
+        final String[] parts;
+        final int[] order;
+
+        Template(String[] parts, int[] order) {
+            this.parts = parts;
+            this.order = order;
+        }
+    }
+
+    private static final Map<String, Template> TEMPLATES = new LinkedHashMap<String, Template>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+            return size() > MAX_TEMPLATES;
+        }
+    };
+
+    private NumericTemplates() { }
+
+    /** Returns the locally rendered translation of {@code text}, or null when no template matches. */
+    public static String render(String srcLang, String tgtLang, String text) {
+        if (!hasDigit(text)) return null;
+        List<String> numbers = new ArrayList<>();
+        String shape = shapeOf(text, numbers);
+        Template t;
+        synchronized (TEMPLATES) {
+            t = TEMPLATES.get(srcLang + ":" + tgtLang + ":" + shape);
+        }
+        if (t == null || t.order.length != numbers.size()) return null;
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < t.order.length; i++) {
+            sb.append(t.parts[i]).append(numbers.get(t.order[i]));
+        }
+        sb.append(t.parts[t.order.length]);
+        return sb.toString();
+    }
+
+    /** Learns a template from a completed translation; ignored when numbers cannot be mapped 1:1. */
+    public static void learn(String srcLang, String tgtLang, String source, String translated) {
+        if (source == null || translated == null || !hasDigit(source)) return;
+        List<String> srcNumbers = new ArrayList<>();
+        String shape = shapeOf(source, srcNumbers);
+        // Repeated numbers would make the mapping ambiguous.
+        for (int i = 0; i < srcNumbers.size(); i++) {
+            if (srcNumbers.indexOf(srcNumbers.get(i)) != i) return;
+        }
+
+        List<String> parts = new ArrayList<>();
+        int[] order = new int[srcNumbers.size()];
+        boolean[] used = new boolean[srcNumbers.size()];
+        Matcher m = NUMBER.matcher(translated);
+        int last = 0;
+        int slot = 0;
+        while (m.find()) {
+            int idx = srcNumbers.indexOf(m.group());
+            if (idx < 0 || used[idx] || slot >= order.length) return;
+            used[idx] = true;
+            order[slot++] = idx;
+            parts.add(translated.substring(last, m.start()));
+            last = m.end();
+        }
+        if (slot != order.length) return;
+        parts.add(translated.substring(last));
+
+        synchronized (TEMPLATES) {
+            TEMPLATES.put(srcLang + ":" + tgtLang + ":" + shape,
+                    new Template(parts.toArray(new String[0]), order));
+        }
+    }
+
+    /** Replaces each number with a slot marker, collecting the numbers in order. */
+    private static String shapeOf(String text, List<String> numbersOut) {
+        Matcher m = NUMBER.matcher(text);
+        StringBuilder sb = new StringBuilder(text.length());
+        int last = 0;
+        while (m.find()) {
+            sb.append(text, last, m.start()).append(SLOT);
+            numbersOut.add(m.group());
+            last = m.end();
+        }
+        sb.append(text, last, text.length());
+        return sb.toString();
+    }
+
+    static boolean hasDigit(String text) {
+        if (text == null) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isDigit(text.charAt(i))) return true;
+        }
+        return false;
+    }
+}
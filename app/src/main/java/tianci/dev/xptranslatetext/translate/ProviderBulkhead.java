@@ -0,0 +1,118 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Concurrency limit, wait queue and counters of one {@link TranslationProvider}.
+ *
+ * At most {@code maxConcurrent} calls run at once. Up to {@code maxQueued} more wait, each no
+ * longer than the provider's current timeout. Anything beyond that is rejected at once, so a
+ * stuck provider cannot tie up every translation thread, and the caller moves on to the next
+ * provider. Counters are logged every {@link #LOG_EVERY} calls.
+ */
+final class ProviderBulkhead {
+
+    private static final int LOG_EVERY = 200;
+    // Weight of the newest outcome in the failure rate.
+    private static final double FAILURE_ALPHA = 0.2;
+    private static final double UNHEALTHY_FAILURE_RATE = 0.5;
+    // An unhealthy provider gets a clean slate after this long without calls.
+    private static final long HEALTH_RESET_MS = 30_000;
+
+    final TranslationProvider provider;
+    final LatencyTracker latency;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final Semaphore permits;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    // Guarded by this.
+    private double failureRate;
+    private long lastOutcomeAt;
+
+    ProviderBulkhead(TranslationProvider provider, LatencyTracker latency, int maxConcurrent, int maxQueued) {
+        this.provider = provider;
+        this.latency = latency;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /** A hedging leg translating {@code text} through this bulkhead. */
+    HedgedCall.Leg leg(String text, String src, String dst, byte priority) {
+        return new HedgedCall.Leg(provider.name(), latency, leg -> {
+            List<String> out = call(Collections.singletonList(text), src, dst, priority, leg);
+            return out == null || out.isEmpty() ? null : out.get(0);
+        });
+    }
+
+    /** {@link TranslationProvider#translate} within the limits; null when rejected or failed. */
+    List<String> call(List<String> texts, String src, String dst, byte priority, HedgedCall.Leg leg) throws Exception {
+        if (!acquire()) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        boolean ok = false;
+        try {
+            List<String> out = provider.translate(texts, src, dst, priority, leg);
+            ok = out != null && !out.isEmpty() && out.get(0) != null;
+            return out;
+        } finally {
+            permits.release();
+            // A cancelled leg was cut off by the hedge; that says nothing about the provider.
+            if (!leg.cancelled()) outcome(ok);
+        }
+    }
+
+    /** False while most recent calls failed. */
+    synchronized boolean healthy() {
+        return failureRate < UNHEALTHY_FAILURE_RATE || SystemClock.uptimeMillis() - lastOutcomeAt > HEALTH_RESET_MS;
+    }
+
+    /** True when a call now would be rejected outright. */
+    boolean saturated() {
+        return permits.availablePermits() == 0 && waiting.get() >= maxQueued;
+    }
+
+    private boolean acquire() throws InterruptedException {
+        if (permits.tryAcquire()) return true;
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return permits.tryAcquire(latency.timeoutMs(), TimeUnit.MILLISECONDS);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void outcome(boolean ok) {
+        long n = calls.incrementAndGet();
+        if (!ok) failures.incrementAndGet();
+        synchronized (this) {
+            failureRate += FAILURE_ALPHA * ((ok ? 0 : 1) - failureRate);
+            lastOutcomeAt = SystemClock.uptimeMillis();
+        }
+        if (n % LOG_EVERY == 0) {
+            XposedBridge.log(String.format(Locale.ROOT,
+                    "[provider %s] calls=%d failures=%d rejected=%d running=%d waiting=%d p95=%dms timeout=%dms",
+                    provider.name(), n, failures.get(), rejected.get(),
+                    maxConcurrent - permits.availablePermits(),
+                    waiting.get(), latency.p95(), latency.timeoutMs()));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.icu.text.BreakIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sentence splitting on top of ICU's BreakIterator.
+ * Pieces keep their surrounding whitespace, so concatenating them restores the input.
+ *
+ * CJK text has no spaces after its full stops and often runs long between them, so
+ * {@link #chunks(String, Locale, int)} additionally breaks overlong sentences at clause
+ * punctuation (，、；： and their Latin forms) before falling back to a hard cut.
+ */
+public final class SentenceSegmenter {
+
+    private SentenceSegmenter() { }
+
+    public static List<String> split(String text) {
+        return split(text, Locale.ROOT);
+    }
+
+    public static List<String> split(String text, Locale locale) {
+        List<String> out = new ArrayList<>();
+        if (text == null || text.isEmpty()) return out;
+        // BreakIterator is stateful and not thread-safe; instances are cheap relative to a translation.
+        BreakIterator it = BreakIterator.getSentenceInstance(locale);
+        it.setText(text);
+        int start = it.first();
+        for (int end = it.next(); end != BreakIterator.DONE; start = end, end = it.next()) {
+            out.add(text.substring(start, end));
+        }
+        if (out.isEmpty()) out.add(text);
+        return out;
+    }
+
+    /**
+     * Sentences of {@code text}, with any sentence longer than {@code maxChars} broken further
+     * at clause punctuation, then at {@code maxChars} (never inside a surrogate pair).
+     */
+    public static List<String> chunks(String text, Locale locale, int maxChars) {
+        List<String> out = new ArrayList<>();
+        for (String sentence : split(text, locale)) {
+            if (sentence.length() <= maxChars) {
+                out.add(sentence);
+            } else {
+                splitLong(sentence, maxChars, out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Break rules for {@code text}: the given source language, or for "auto" a guess from the
+     * script of its first letters (kana means Japanese, Han alone Chinese, Hangul Korean).
+     */
+    public static Locale localeFor(String text, String srcLang) {
+        if (srcLang != null && !srcLang.isEmpty() && !"auto".equalsIgnoreCase(srcLang)) {
+            return Locale.forLanguageTag(srcLang);
+        }
+        boolean han = false;
+        int letters = 0;
+        for (int i = 0; i < text.length() && letters < 64; ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (!Character.isLetter(cp)) continue;
+            letters++;
+            Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+            if (script == Character.UnicodeScript.HIRAGANA || script == Character.UnicodeScript.KATAKANA) {
+                return Locale.JAPANESE;
+            }
+            if (script == Character.UnicodeScript.HANGUL) return Locale.KOREAN;
+            if (script == Character.UnicodeScript.HAN) han = true;
+        }
+        return han ? Locale.CHINESE : Locale.ROOT;
+    }
+
+    private static void splitLong(String sentence, int maxChars, List<String> out) {
+        int start = 0;
+        while (sentence.length() - start > maxChars) {
+            int cut = -1;
+            // Last clause break that keeps the piece within the limit.
+            for (int i = start + maxChars - 1; i > start; i--) {
+                if (isClauseBreak(sentence.charAt(i))) {
+                    cut = i + 1;
+                    break;
+                }
+            }
+            if (cut < 0) {
+                cut = start + maxChars;
+                if (Character.isLowSurrogate(sentence.charAt(cut)) && cut - 1 > start) cut--;
+            }
+            // Keep the whitespace after a break with the piece before it.
+            while (cut < sentence.length() && Character.isWhitespace(sentence.charAt(cut))) cut++;
+            out.add(sentence.substring(start, cut));
+            start = cut;
+        }
+        if (start < sentence.length()) out.add(sentence.substring(start));
+    }
+
+    private static boolean isClauseBreak(char c) {
+        switch (c) {
+            case '，': case '、': case '；': case '：':
+            case ',': case ';': case ':':
+            case '\n':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** The sentence body without surrounding whitespace (empty for blank pieces). */
+    static String core(String piece) {
+        int a = coreStart(piece);
+        int b = coreEnd(piece);
+        return a < b ? piece.substring(a, b) : "";
+    }
+
+    /** Start of the sentence body, skipping leading whitespace. */
+    static int coreStart(String piece) {
+        int i = 0;
+        while (i < piece.length() && Character.isWhitespace(piece.charAt(i))) i++;
+        return i;
+    }
+
+    /** End of the sentence body (exclusive), dropping trailing whitespace. */
+    static int coreEnd(String piece) {
+        int i = piece.length();
+        while (i > 0 && Character.isWhitespace(piece.charAt(i - 1))) i--;
+        return i;
+    }
+}
@@ -0,0 +1,41 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.List;
+
+/**
+ * A translation backend that {@link TranslationRouter} can send text to.
+ *
+ * Implementations own their connection setup and reply parsing. They are always called through
+ * a {@link ProviderBulkhead}. They must take their read timeout from the leg's
+ * {@link LatencyTracker} and {@link HedgedCall.Leg#attach attach} their connection, so that a
+ * hedged call can abandon them.
+ */
+interface TranslationProvider {
+
+    String name();
+
+    /** Relative price of one call (quota, rate limits, data); decides the order for short text. */
+    int cost();
+
+    /** Relative translation quality; matters more the longer the text. */
+    int quality();
+
+    /** Most texts one {@link #translate} call accepts. */
+    int maxBatch();
+
+    /** Whether results are good enough to keep in SQLite. */
+    boolean persistResults();
+
+    /** Whether {@code src} to {@code dst} can be translated at all. */
+    boolean supports(String src, String dst);
+
+    /** Whether the provider is worth trying right now, e.g. reachable and with quota left. */
+    boolean available();
+
+    /**
+     * Translates up to {@link #maxBatch()} texts from {@code src} to {@code dst}.
+     *
+     * @return one entry per text, null where that text failed; null when the whole call failed.
+     */
+    List<String> translate(List<String> texts, String src, String dst, byte priority, HedgedCall.Leg leg) throws Exception;
+}
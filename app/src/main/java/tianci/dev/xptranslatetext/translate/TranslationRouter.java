@@ -0,0 +1,58 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Orders the providers for one request.
+ *
+ * Providers that are switched off, cannot handle the language pair, or are unavailable right now
+ * are left out. The rest are ranked by cost minus quality, where quality counts for nothing on
+ * short text (UI labels), once on ordinary text and twice on long text. Short labels therefore
+ * go to the cheapest provider, and long paragraphs to the best one. An unhealthy or saturated
+ * provider drops behind every healthy one. Ties go to the cheaper provider, then to the one
+ * with the lower p95.
+ */
+final class TranslationRouter {
+
+    /** Up to this many chars is a short label. */
+    static final int SHORT_TEXT_CHARS = 32;
+    /** From this many chars on is a long paragraph. */
+    static final int LONG_TEXT_CHARS = 200;
+    private static final int DEMOTED = 1_000;
+
+    private final List<ProviderBulkhead> bulkheads;
+
+    TranslationRouter(List<ProviderBulkhead> bulkheads) {
+        this.bulkheads = new ArrayList<>(bulkheads);
+    }
+
+    /** Bulkheads to try for a text of {@code chars} chars, best first. */
+    List<ProviderBulkhead> route(int chars, String src, String dst, Predicate<TranslationProvider> enabled) {
+        int qualityWeight = chars <= SHORT_TEXT_CHARS ? 0 : chars >= LONG_TEXT_CHARS ? 2 : 1;
+        List<ProviderBulkhead> out = new ArrayList<>(bulkheads.size());
+        List<long[]> keys = new ArrayList<>(bulkheads.size());
+        for (ProviderBulkhead b : bulkheads) {
+            TranslationProvider p = b.provider;
+            if (!enabled.test(p) || !p.supports(src, dst) || !p.available()) continue;
+            int score = p.cost() - qualityWeight * p.quality();
+            if (!b.healthy() || b.saturated()) score += DEMOTED;
+            // Insertion sort; there are only a handful of providers.
+            long[] key = {score, p.cost(), b.latency.p95()};
+            int i = 0;
+            while (i < keys.size() && compare(keys.get(i), key) <= 0) i++;
+            keys.add(i, key);
+            out.add(i, b);
+        }
+        return out;
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int c = Long.compare(a[i], b[i]);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+}
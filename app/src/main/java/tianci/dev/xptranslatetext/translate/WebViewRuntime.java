@@ -0,0 +1,99 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.webkit.WebView;
+
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * The page-side translation runtime ({@code assets/xp_translate_runtime.js}).
+ *
+ * The asset is read once through the module's own class loader (the module APK is on its
+ * class path, so hooked apps need no access to our resources) and kept, with its config
+ * prefix, as one cached string. Where supported it is registered as a document-start script,
+ * so each navigation only needs {@link #TRIGGER}.
+ */
+public final class WebViewRuntime {
+
+    private static final String ASSET_PATH = "assets/xp_translate_runtime.js";
+
+    /** Boots the runtime if it is installed; a no-op once the page has started translating. */
+    public static final String TRIGGER = "window.__xpTranslate && window.__xpTranslate.start()";
+
+    private static String runtimeSource;
+    private static String script;
+    private static String scriptConfig;
+
+    private WebViewRuntime() { }
+
+    /** Config prefix plus runtime, or null when the asset cannot be read. */
+    public static synchronized String script(String srcLang, String tgtLang, boolean useFallbackGemini, boolean useFallbackGApi, int maxInFlight) {
+        String config;
+        try {
+            config = new JSONObject()
+                    .put("src", srcLang)
+                    .put("tgt", tgtLang)
+                    .put("gemini", useFallbackGemini)
+                    .put("gapi", useFallbackGApi)
+                    .put("maxInFlight", maxInFlight)
+                    .toString();
+        } catch (JSONException e) {
+            return null;
+        }
+        if (script != null && config.equals(scriptConfig)) return script;
+
+        if (runtimeSource == null) {
+            runtimeSource = readAsset();
+            if (runtimeSource == null) return null;
+        }
+        scriptConfig = config;
+        script = "window.__xpTranslateConfig = " + config + ";\n" + runtimeSource;
+        return script;
+    }
+
+    /**
+     * Registers {@code script} to run at document start of every page this WebView loads.
+     * Returns false when the WebView provider lacks the feature; callers then inject the
+     * full script on page finish instead. Must be called on the WebView's thread.
+     */
+    public static boolean installAtDocumentStart(WebView webView, String script) {
+        try {
+            if (!WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT)) return false;
+            WebViewCompat.addDocumentStartJavaScript(webView, script, Collections.singleton("*"));
+            return true;
+        } catch (Throwable t) {
+            XposedBridge.log("addDocumentStartJavaScript failed => " + t.getMessage());
+            return false;
+        }
+    }
+
+    private static String readAsset() {
+        ClassLoader cl = WebViewRuntime.class.getClassLoader();
+        try (InputStream in = cl == null ? null : cl.getResourceAsStream(ASSET_PATH)) {
+            if (in == null) {
+                XposedBridge.log("WebView runtime asset not found => " + ASSET_PATH);
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (Throwable t) {
+            XposedBridge.log("WebView runtime asset read failed => " + t.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,25 +1,262 @@
 package tianci.dev.xptranslatetext.translate;
 
 import android.util.Log;
+import android.view.Choreographer;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebView;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * JavaScript bridge injected into WebView to request translations
  * and post results back to the page.
+ *
+ * Bridge calls return immediately: work runs on a small executor owned by this WebView, whose
+ * thread count is the number of batches allowed in flight at once. Navigating to another URL
+ * cancels the calls made by other pages, {@link WebView#destroy()} cancels everything, and
+ * results of cancelled calls are never delivered. Calls are matched by page URL rather than
+ * by order, since a document-start script may call in before {@code onPageStarted} is reported.
+ *
+ * Results are buffered and flushed once per frame: everything that finished since the last
+ * frame reaches the page as one JSON array through a single {@code __xpTranslate.apply} call.
  */
 public class WebViewTranslationBridge {
+    private static final String TAG = "LSPosed-Bridge";
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    /** Calls waiting for a free slot; beyond this a batch is answered with its original texts. */
+    private static final int MAX_QUEUED = 32;
+
+    private interface Work {
+        void run(Call call) throws Exception;
+    }
+
+    /** One bridge call, tagged with the page that made it. */
+    private final class Call implements Runnable {
+        final String page;
+        final Work work;
+        volatile Future<?> future;
+        /** Set on cancellation; guarded by {@link #buffered}. */
+        boolean dropped;
+
+        Call(String page, Work work) {
+            this.page = page;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            try {
+                work.run(this);
+            } catch (InterruptedException e) {
+                // Cancelled by navigation or destroy.
+            } catch (Throwable t) {
+                Log.e(TAG, "bridge task failed => " + t);
+            } finally {
+                outstanding.remove(this);
+            }
+        }
+    }
+
+    private static final class Pending {
+        final String page;
+        final JSONObject message;
+
+        Pending(String page, JSONObject message) {
+            this.page = page;
+            this.message = message;
+        }
+    }
+
     private final WebView webView;
+    private final ThreadPoolExecutor executor;
+    private final Set<Call> outstanding = ConcurrentHashMap.newKeySet();
+    private volatile boolean destroyed;
+
+    // Messages waiting for the next frame; guarded by itself.
+    private final List<Pending> buffered = new ArrayList<>();
+    private boolean flushScheduled;
+    private final Choreographer.FrameCallback flushCallback = frameTimeNanos -> flush();
 
     public WebViewTranslationBridge(WebView webView) {
+        this(webView, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public WebViewTranslationBridge(WebView webView, int maxInFlight) {
         this.webView = webView;
+        int window = Math.max(1, maxInFlight);
+        this.executor = new ThreadPoolExecutor(window, window, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+                    Thread t = new Thread(r, "XPTranslate-WebView");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Translates a batch of text nodes; {@code textsJson} is a JSON array of strings.
+     * Results come back as one {@code {type: "batch", id, results}} message.
+     */
+    @JavascriptInterface
+    public void translateBatchFromJs(String batchId, String textsJson, String pageUrl, String srcLang, String tgtLang, boolean useFallbackGemini, boolean useFallbackGApi) {
+        List<String> texts = new ArrayList<>();
+        try {
+            JSONArray arr = new JSONArray(textsJson);
+            for (int i = 0; i < arr.length(); i++) {
+                texts.add(arr.optString(i, ""));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "translateBatchFromJs => bad payload: " + e.getMessage());
+            return;
+        }
+        Log.i(TAG, String.format("[ translate ] WebViewTranslationBridge batch => %s (%d nodes)", batchId, texts.size()));
+
+        submit(pageUrl, call -> {
+            JSONArray results = MultiSegmentTranslateTask.translateBatchFromJs(batchId, texts, pageUrl, srcLang, tgtLang, useFallbackGemini, useFallbackGApi);
+            deliver(call, batchMessage(batchId, results));
+        }, call -> {
+            // Saturated: answer at once so the page frees the slot instead of timing out. Null
+            // marks every node as failed, to be retried, rather than translated.
+            JSONArray failed = new JSONArray();
+            for (int i = 0; i < texts.size(); i++) failed.put(JSONObject.NULL);
+            deliver(call, batchMessage(batchId, failed));
+        });
     }
 
+    /** Requests the stored translations of {@code pageUrl}; delivered as a {@code {type: "snapshot", entries}} message. */
     @JavascriptInterface
-    public void translateFromJs(String requestId, String text, String srcLang, String tgtLang, boolean useFallbackGemini, boolean useFallbackGApi) {
-        // Delegate to the shared translation task; result is posted via evaluateJavascript.
-        Log.i("LSPosed-Bridge", String.format("[ translate ] WebViewTranslationBridge string => %s", text));
+    public void requestSnapshot(String pageUrl, String srcLang, String tgtLang) {
+        submit(pageUrl, call -> {
+            Map<String, String> snapshot = MultiSegmentTranslateTask.loadPageSnapshot(pageUrl, srcLang, tgtLang);
+            deliver(call, snapshotMessage(new JSONObject(snapshot)));
+        }, call -> deliver(call, snapshotMessage(null)));
+    }
+
+    /** Cancels the work of every page except {@code url}, which the WebView is navigating to. */
+    public void cancelOtherPages(String url) {
+        cancel(pageOf(url));
+    }
+
+    /** Cancels all outstanding work and stops the executor; the bridge stays inert afterwards. */
+    public void destroy() {
+        destroyed = true;
+        cancel(null);
+        executor.shutdownNow();
+    }
+
+    /** Cancels calls whose page differs from {@code keepPage} (all calls when null). */
+    private void cancel(String keepPage) {
+        List<Call> toCancel = new ArrayList<>();
+        synchronized (buffered) {
+            for (Call call : outstanding) {
+                if (keepPage != null && keepPage.equals(call.page)) continue;
+                call.dropped = true;
+                toCancel.add(call);
+            }
+            for (Iterator<Pending> it = buffered.iterator(); it.hasNext(); ) {
+                if (keepPage == null || !keepPage.equals(it.next().page)) it.remove();
+            }
+        }
+        for (Call call : toCancel) {
+            outstanding.remove(call);
+            Future<?> f = call.future;
+            if (f != null) f.cancel(true);
+        }
+        executor.purge();
+    }
+
+    private void submit(String pageUrl, Work work, Work onRejected) {
+        if (destroyed) return;
+        Call call = new Call(pageOf(pageUrl), work);
+        outstanding.add(call);
+        try {
+            call.future = executor.submit(call);
+        } catch (RejectedExecutionException e) {
+            outstanding.remove(call);
+            if (destroyed) return;
+            try {
+                onRejected.run(call);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private void deliver(Call call, JSONObject message) {
+        if (message == null) return;
+        synchronized (buffered) {
+            if (destroyed || call.dropped) return;
+            buffered.add(new Pending(call.page, message));
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        webView.post(() -> Choreographer.getInstance().postFrameCallback(flushCallback));
+    }
+
+    /** Main thread: hands everything buffered since the last frame to the page in one call. */
+    private void flush() {
+        JSONArray messages = new JSONArray();
+        synchronized (buffered) {
+            flushScheduled = false;
+            if (destroyed || buffered.isEmpty()) return;
+            for (Pending p : buffered) {
+                messages.put(p.message);
+            }
+            buffered.clear();
+        }
+        webView.evaluateJavascript("window.__xpTranslate && window.__xpTranslate.apply(" + jsSafe(messages.toString()) + ")", null);
+    }
+
+    private static JSONObject batchMessage(String batchId, JSONArray results) {
+        try {
+            return new JSONObject().put("type", "batch").put("id", batchId).put("results", results);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static JSONObject snapshotMessage(JSONObject entries) {
+        try {
+            return new JSONObject().put("type", "snapshot").put("entries", entries == null ? JSONObject.NULL : entries);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /** Page identity for cancellation: the URL without its fragment, which in-page anchors change. */
+    private static String pageOf(String url) {
+        if (url == null) return "";
+        int hash = url.indexOf('#');
+        return hash >= 0 ? url.substring(0, hash) : url;
+    }
 
-        MultiSegmentTranslateTask.translateFromJs(webView, requestId, text, srcLang, tgtLang, useFallbackGemini, useFallbackGApi);
+    /**
+     * JSON is valid JS except for raw U+2028/U+2029 on older engines; escaping '<' also keeps
+     * page text such as "</script>" inert if the payload is ever inlined.
+     */
+    private static String jsSafe(String json) {
+        StringBuilder sb = new StringBuilder(json.length() + 16);
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '\u2028') sb.append("\\u2028");
+            else if (c == '\u2029') sb.append("\\u2029");
+            else if (c == '<') sb.append("\\u003c");
+            else sb.append(c);
+        }
+        return sb.toString();
     }
 }
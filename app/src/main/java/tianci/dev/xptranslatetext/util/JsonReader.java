@@ -0,0 +1,343 @@
+package tianci.dev.xptranslatetext.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pull-style JSON reader over a UTF-8 byte buffer.
+ *
+ * Callers walk to the fields they need and {@link #skipValue()} the rest, so no tree is
+ * built. Strings without escapes are decoded in one step straight from the buffer. Malformed
+ * input raises {@link IOException}, including missing, doubled, leading and trailing commas.
+ */
+public final class JsonReader {
+
+    public static final int BEGIN_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int BEGIN_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int STRING = 5;
+    public static final int NUMBER = 6;
+    public static final int BOOLEAN = 7;
+    public static final int NULL = 8;
+    public static final int END_DOCUMENT = 9;
+
+    // Where the reader stands between tokens, for checking the commas.
+    private static final int AFTER_OPEN = 0;
+    private static final int AFTER_VALUE = 1;
+    private static final int EXPECT_VALUE = 2;
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+    private int state = EXPECT_VALUE;
+    private int depth;
+
+    public JsonReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public JsonReader(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off + len;
+    }
+
+    /** Reads {@code in} to the end; the stream is not closed. */
+    public static byte[] readAll(InputStream in) throws IOException {
+        byte[] b = new byte[8192];
+        int n = 0;
+        int r;
+        while ((r = in.read(b, n, b.length - n)) > 0) {
+            n += r;
+            if (n == b.length) b = Arrays.copyOf(b, b.length * 2);
+        }
+        return n == b.length ? b : Arrays.copyOf(b, n);
+    }
+
+    /** Kind of the next token, without consuming it. */
+    public int peek() throws IOException {
+        nextToken();
+        if (pos >= end) return END_DOCUMENT;
+        switch (buf[pos]) {
+            case '{': return BEGIN_OBJECT;
+            case '}': return END_OBJECT;
+            case '[': return BEGIN_ARRAY;
+            case ']': return END_ARRAY;
+            case '"': return STRING;
+            case 't':
+            case 'f': return BOOLEAN;
+            case 'n': return NULL;
+            default: return NUMBER;
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect('{');
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+    }
+
+    /** True while the current object or array has more members. */
+    public boolean hasNext() throws IOException {
+        int t = peek();
+        return t != END_OBJECT && t != END_ARRAY && t != END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        String name = nextString();
+        skipWhitespace();
+        if (pos >= end || buf[pos] != ':') throw error("':' expected");
+        pos++;
+        state = EXPECT_VALUE;
+        return name;
+    }
+
+    public String nextString() throws IOException {
+        nextToken();
+        if (pos >= end || buf[pos] != '"') throw error("string expected");
+        int start = ++pos;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b == '"') {
+                pos = i + 1;
+                state = AFTER_VALUE;
+                return new String(buf, start, i - start, StandardCharsets.UTF_8);
+            }
+            if (b == '\\') return slowString(start);
+        }
+        throw error("unterminated string");
+    }
+
+    public long nextLong() throws IOException {
+        String n = numberToken();
+        try {
+            return Long.parseLong(n);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(n);
+            } catch (NumberFormatException notANumber) {
+                throw error("bad number");
+            }
+        }
+    }
+
+    public double nextDouble() throws IOException {
+        try {
+            return Double.parseDouble(numberToken());
+        } catch (NumberFormatException e) {
+            throw error("bad number");
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        nextToken();
+        if (literal("true")) return true;
+        if (literal("false")) return false;
+        throw error("boolean expected");
+    }
+
+    public void nextNull() throws IOException {
+        nextToken();
+        if (!literal("null")) throw error("null expected");
+    }
+
+    /** Skips the next value, including everything nested in it. */
+    public void skipValue() throws IOException {
+        int t = peek();
+        switch (t) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) skipValue();
+                endArray();
+                break;
+            case STRING:
+                skipString();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            case NUMBER:
+                nextDouble();
+                break;
+            default:
+                throw error("value expected");
+        }
+    }
+
+    /**
+     * Advances into the current object to the value of member {@code name}, skipping the members
+     * before it. Returns false, with the object fully consumed, when there is no such member.
+     */
+    public boolean findName(String name) throws IOException {
+        while (hasNext()) {
+            if (name.equals(nextName())) return true;
+            skipValue();
+        }
+        endObject();
+        return false;
+    }
+
+    private String slowString(int start) throws IOException {
+        StringBuilder sb = new StringBuilder(Math.max(16, pos - start + 16));
+        int i = start;
+        int runStart = start;
+        while (i < end) {
+            byte b = buf[i];
+            if (b == '"') {
+                sb.append(new String(buf, runStart, i - runStart, StandardCharsets.UTF_8));
+                pos = i + 1;
+                state = AFTER_VALUE;
+                return sb.toString();
+            }
+            if (b != '\\') {
+                i++;
+                continue;
+            }
+            sb.append(new String(buf, runStart, i - runStart, StandardCharsets.UTF_8));
+            if (i + 1 >= end) break;
+            byte e = buf[i + 1];
+            i += 2;
+            switch (e) {
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 > end) throw error("bad \\u escape");
+                    int c = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int h = Character.digit(buf[i + k], 16);
+                        if (h < 0) throw error("bad \\u escape");
+                        c = (c << 4) | h;
+                    }
+                    sb.append((char) c);
+                    i += 4;
+                    break;
+                default:
+                    throw error("bad escape");
+            }
+            runStart = i;
+        }
+        throw error("unterminated string");
+    }
+
+    private void skipString() throws IOException {
+        nextToken();
+        if (pos >= end || buf[pos] != '"') throw error("string expected");
+        for (int i = pos + 1; i < end; i++) {
+            byte b = buf[i];
+            if (b == '\\') {
+                i++;
+            } else if (b == '"') {
+                pos = i + 1;
+                state = AFTER_VALUE;
+                return;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private String numberToken() throws IOException {
+        nextToken();
+        int start = pos;
+        while (pos < end) {
+            byte b = buf[pos];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos == start) throw error("number expected");
+        state = AFTER_VALUE;
+        return new String(buf, start, pos - start, StandardCharsets.US_ASCII);
+    }
+
+    private boolean literal(String word) {
+        if (end - pos < word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (buf[pos + i] != word.charAt(i)) return false;
+        }
+        pos += word.length();
+        state = AFTER_VALUE;
+        return true;
+    }
+
+    private void expect(char c) throws IOException {
+        nextToken();
+        if (pos >= end || buf[pos] != c) throw error("'" + c + "' expected");
+        pos++;
+        if (c == '{' || c == '[') {
+            depth++;
+            state = AFTER_OPEN;
+        } else {
+            depth--;
+            state = AFTER_VALUE;
+        }
+    }
+
+    /**
+     * Moves to the next token, across the one comma allowed here. A comma must follow a value
+     * inside an object or array and be followed by another value; a value must not follow a
+     * value without one. Bracket kinds are checked by the expect calls.
+     */
+    private void nextToken() throws IOException {
+        skipWhitespace();
+        if (pos >= end) return;
+        byte b = buf[pos];
+        if (b == ',') {
+            if (state != AFTER_VALUE || depth == 0) throw error("unexpected ','");
+            pos++;
+            state = EXPECT_VALUE;
+            skipWhitespace();
+            if (pos >= end) return;
+            b = buf[pos];
+        } else if (state == AFTER_VALUE && b != '}' && b != ']') {
+            throw error("',' expected");
+        }
+        if ((b == '}' || b == ']') && state == EXPECT_VALUE) throw error("value expected");
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException("JSON: " + message + " at byte " + pos);
+    }
+}
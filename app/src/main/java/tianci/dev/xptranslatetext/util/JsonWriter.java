@@ -0,0 +1,209 @@
+package tianci.dev.xptranslatetext.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer that encodes straight into a growable UTF-8 byte buffer.
+ *
+ * Strings are escaped per RFC 8259 (quote, backslash and every control character), plus
+ * U+2028/U+2029 so the output is also safe to embed in JavaScript. Commas and colons are
+ * placed automatically; structure is not validated beyond that.
+ */
+public final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int pos;
+    // Per nesting level: whether a value was already written at that level.
+    private boolean[] hasValue = new boolean[8];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public JsonWriter beginObject() {
+        return open((byte) '{');
+    }
+
+    public JsonWriter endObject() {
+        return close((byte) '}');
+    }
+
+    public JsonWriter beginArray() {
+        return open((byte) '[');
+    }
+
+    public JsonWriter endArray() {
+        return close((byte) ']');
+    }
+
+    public JsonWriter name(String name) {
+        separate();
+        string(name);
+        ensure(1);
+        buf[pos++] = ':';
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        if (value == null) return nullValue();
+        separate();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        return raw(Long.toString(value));
+    }
+
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return nullValue();
+        return raw(value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value));
+    }
+
+    public JsonWriter value(boolean value) {
+        return raw(value ? "true" : "false");
+    }
+
+    public JsonWriter nullValue() {
+        return raw("null");
+    }
+
+    public int size() {
+        return pos;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, pos);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, pos, StandardCharsets.UTF_8);
+    }
+
+    /** {@code {"key": value}} as UTF-8 bytes. */
+    public static byte[] object(String key, String value) {
+        return new JsonWriter(32 + (value == null ? 0 : value.length() * 3))
+                .beginObject().name(key).value(value).endObject().toByteArray();
+    }
+
+    private JsonWriter open(byte b) {
+        separate();
+        ensure(1);
+        buf[pos++] = b;
+        if (++depth == hasValue.length) hasValue = Arrays.copyOf(hasValue, depth * 2);
+        hasValue[depth] = false;
+        return this;
+    }
+
+    private JsonWriter close(byte b) {
+        ensure(1);
+        buf[pos++] = b;
+        depth--;
+        return this;
+    }
+
+    private JsonWriter raw(String literal) {
+        separate();
+        ensure(literal.length());
+        for (int i = 0; i < literal.length(); i++) {
+            buf[pos++] = (byte) literal.charAt(i);
+        }
+        return this;
+    }
+
+    /** Emits the comma before a value or name, unless it directly follows a name. */
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (hasValue[depth]) {
+            ensure(1);
+            buf[pos++] = ',';
+        }
+        hasValue[depth] = true;
+    }
+
+    private void string(String s) {
+        // Worst case per char: six bytes for \\uXXXX.
+        ensure(s.length() * 6 + 2);
+        byte[] b = buf;
+        int p = pos;
+        b[p++] = '"';
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    b[p++] = (byte) c;
+                    continue;
+                }
+                b[p++] = '\\';
+                switch (c) {
+                    case '"': b[p++] = '"'; break;
+                    case '\\': b[p++] = '\\'; break;
+                    case '\n': b[p++] = 'n'; break;
+                    case '\r': b[p++] = 'r'; break;
+                    case '\t': b[p++] = 't'; break;
+                    case '\b': b[p++] = 'b'; break;
+                    case '\f': b[p++] = 'f'; break;
+                    default: p = unicodeEscape(b, p, c);
+                }
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == 0x2028 || c == 0x2029) {
+                b[p++] = '\\';
+                p = unicodeEscape(b, p, c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[p++] = (byte) (0xf0 | (cp >> 18));
+                b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: not encodable as UTF-8, keep it as an escape.
+                b[p++] = '\\';
+                p = unicodeEscape(b, p, c);
+            } else {
+                b[p++] = (byte) (0xe0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        b[p++] = '"';
+        pos = p;
+    }
+
+    /** Writes {@code uXXXX} (the backslash is already written). */
+    private static int unicodeEscape(byte[] b, int p, char c) {
+        b[p++] = 'u';
+        b[p++] = HEX[(c >> 12) & 0xf];
+        b[p++] = HEX[(c >> 8) & 0xf];
+        b[p++] = HEX[(c >> 4) & 0xf];
+        b[p++] = HEX[c & 0xf];
+        return p;
+    }
+
+    private void ensure(int extra) {
+        if (pos + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package tianci.dev.xptranslatetext.view;
+
+import android.os.SystemClock;
+import android.text.Editable;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Adapter;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+import de.robv.android.xposed.callbacks.XC_LoadPackage;
+import tianci.dev.xptranslatetext.HookMain;
+import tianci.dev.xptranslatetext.translate.MultiSegmentTranslateTask;
+
+/**
+ * Prefetches translations for list rows just ahead of the scroll position, N rows deep with N
+ * scaled by the observed scroll velocity.
+ *
+ * Only text the app has already produced is used; no extra rows are bound, since a bind can
+ * have side effects in the app:
+ * <ul>
+ * <li>Texts recorded per bound position, which cover scrolling back over rows already seen.</li>
+ * <li>RecyclerView: rows its own GapWorker binds ahead of time are not attached yet; their
+ * texts are prefetched right away, since their own setText translation waits until they are
+ * on screen.</li>
+ * <li>AbsListView: adapter items that are plain text are read directly.</li>
+ * </ul>
+ */
+public final class AdjacentPrefetcher {
+
+    private static final String[] RECYCLER_ADAPTER_CLASSES = {
+            "androidx.recyclerview.widget.RecyclerView$Adapter",
+            "android.support.v7.widget.RecyclerView$Adapter",
+    };
+
+    /** Positions always prefetched ahead, even when scrolling slowly. */
+    private static final int MIN_LOOKAHEAD = 2;
+    private static final int MAX_LOOKAHEAD = 16;
+    /** Extra lookahead per item/second of scroll velocity. */
+    private static final float LOOKAHEAD_SECONDS = 0.6f;
+    /** Binds further apart than this are a jump (data reload, scrollTo), not scrolling. */
+    private static final int MAX_SCROLL_STEP = 8;
+    private static final int MAX_RECORDED_POSITIONS = 512;
+    private static final int MAX_TEXTS_PER_ITEM = 16;
+    private static final int MAX_RECENT_PREFETCHES = 2048;
+
+    private static final class ListState {
+        final Map<Integer, List<CharSequence>> textsByPosition =
+                new LinkedHashMap<Integer, List<CharSequence>>(64, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, List<CharSequence>> eldest) {
+                        return size() > MAX_RECORDED_POSITIONS;
+                    }
+                };
+        int lastPosition = -1;
+        long lastBindAt;
+        int direction = 1;
+        /** Smoothed scroll velocity in items per second. */
+        float velocity;
+    }
+
+    // Main thread only (binds happen on the UI thread, including GapWorker prefetch).
+    private static final Map<Object, ListState> STATES = new WeakHashMap<>();
+    private static final Map<String, Boolean> RECENT = new LinkedHashMap<String, Boolean>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RECENT_PREFETCHES;
+        }
+    };
+
+    private static String srcLang;
+    private static String tgtLang;
+    private static boolean useFallbackGemini;
+    private static boolean useFallbackGApi;
+    // Set once ViewHolder.itemView could not be read (e.g. renamed by the app's shrinker).
+    private static volatile boolean itemViewMissing;
+
+    private AdjacentPrefetcher() { }
+
+    public static void install(final XC_LoadPackage.LoadPackageParam lpparam,
+                               String finalSourceLang,
+                               String finalTargetLang,
+                               boolean fallbackGemini,
+                               boolean fallbackGApi) {
+        srcLang = finalSourceLang;
+        tgtLang = finalTargetLang;
+        useFallbackGemini = fallbackGemini;
+        useFallbackGApi = fallbackGApi;
+
+        for (String className : RECYCLER_ADAPTER_CLASSES) {
+            Class<?> adapterClass = XposedHelpers.findClassIfExists(className, lpparam.classLoader);
+            if (adapterClass == null) continue;
+            try {
+                XposedBridge.hookAllMethods(adapterClass, "bindViewHolder", new XC_MethodHook() {
+                    @Override
+                    protected void beforeHookedMethod(MethodHookParam param) {
+                        View itemView = itemViewOf(param.args[0]);
+                        if (itemView == null) return;
+                        Map<TextView, CharSequence> before = snapshotTexts(itemView);
+                        // A recycled row shows a new item now; its earlier texts were not churn.
+                        for (TextView tv : before.keySet()) ChurnDetector.reset(tv);
+                        param.setObjectExtra("xp_texts_before", before);
+                    }
+
+                    @Override
+                    protected void afterHookedMethod(MethodHookParam param) {
+                        if (!(param.args[1] instanceof Integer)) return;
+                        View itemView = itemViewOf(param.args[0]);
+                        if (itemView == null) return;
+                        @SuppressWarnings("unchecked")
+                        Map<TextView, CharSequence> before = (Map<TextView, CharSequence>) param.getObjectExtra("xp_texts_before");
+                        onItemBound(param.thisObject, (Integer) param.args[1], itemView, before);
+                    }
+                });
+                XposedBridge.log("Hook adapter prefetch => " + className);
+            } catch (Throwable t) {
+                XposedBridge.log("hook " + className + ".bindViewHolder failed => " + t.getMessage());
+            }
+        }
+
+        try {
+            XposedHelpers.findAndHookMethod("android.widget.AbsListView", lpparam.classLoader,
+                    "obtainView", int.class, boolean[].class, new XC_MethodHook() {
+                        @Override
+                        protected void afterHookedMethod(MethodHookParam param) {
+                            Object result = param.getResult();
+                            if (!(result instanceof View)) return;
+                            onItemBound(param.thisObject, (Integer) param.args[0], (View) result, null);
+                        }
+                    });
+        } catch (Throwable t) {
+            XposedBridge.log("hook AbsListView.obtainView failed => " + t.getMessage());
+        }
+    }
+
+    private static View itemViewOf(Object holder) {
+        if (itemViewMissing) return null;
+        try {
+            Object itemView = XposedHelpers.getObjectField(holder, "itemView");
+            return itemView instanceof View ? (View) itemView : null;
+        } catch (Throwable t) {
+            // The field is gone for the whole process; do not look it up on every bind.
+            itemViewMissing = true;
+            XposedBridge.log("[AdjacentPrefetcher] ViewHolder.itemView not found, row prefetch off => " + t.getMessage());
+            return null;
+        }
+    }
+
+    private static void onItemBound(Object list, int position, View itemView, Map<TextView, CharSequence> before) {
+        if (position < 0) return;
+        try {
+            ListState state = STATES.get(list);
+            if (state == null) {
+                state = new ListState();
+                STATES.put(list, state);
+            }
+
+            List<CharSequence> produced = collectProducedTexts(itemView, before);
+            if (!produced.isEmpty()) {
+                state.textsByPosition.put(position, produced);
+                // Bound ahead of time by the layout manager: its own translation is deferred
+                // until attach, so warm the cache now.
+                if (!itemView.isAttachedToWindow()) {
+                    prefetchTexts(produced);
+                }
+            }
+
+            updateScroll(state, position);
+            int budget = lookaheadBudget(state);
+            Adapter listAdapter = list instanceof AdapterView ? ((AdapterView<?>) list).getAdapter() : null;
+            for (int i = 1; i <= budget; i++) {
+                int ahead = position + state.direction * i;
+                List<CharSequence> texts = state.textsByPosition.get(ahead);
+                if (texts != null) {
+                    prefetchTexts(texts);
+                } else if (listAdapter != null && ahead >= 0 && ahead < listAdapter.getCount()
+                        && listAdapter.getItem(ahead) instanceof CharSequence) {
+                    prefetchTexts(Collections.singletonList((CharSequence) listAdapter.getItem(ahead)));
+                }
+            }
+        } catch (Throwable t) {
+            XposedBridge.log("[AdjacentPrefetcher] bind error => " + t.getMessage());
+        }
+    }
+
+    private static void updateScroll(ListState state, int position) {
+        long now = SystemClock.uptimeMillis();
+        int step = position - state.lastPosition;
+        if (state.lastPosition >= 0 && step != 0 && Math.abs(step) <= MAX_SCROLL_STEP) {
+            state.direction = step > 0 ? 1 : -1;
+            long dt = Math.max(1, now - state.lastBindAt);
+            float instant = Math.abs(step) * 1000f / dt;
+            state.velocity = state.velocity * 0.7f + instant * 0.3f;
+        } else if (Math.abs(step) > MAX_SCROLL_STEP) {
+            state.velocity = 0f;
+        }
+        state.lastPosition = position;
+        state.lastBindAt = now;
+    }
+
+    private static int lookaheadBudget(ListState state) {
+        int budget = MIN_LOOKAHEAD + Math.round(state.velocity * LOOKAHEAD_SECONDS);
+        return Math.min(MAX_LOOKAHEAD, budget);
+    }
+
+    private static void prefetchTexts(List<CharSequence> texts) {
+        for (CharSequence text : texts) {
+            String key = text.toString();
+            if (RECENT.put(key, Boolean.TRUE) != null) continue;
+            MultiSegmentTranslateTask.prefetchSegmentsAsync(HookMain.buildSegments(text),
+                    srcLang, tgtLang, useFallbackGemini, useFallbackGApi);
+        }
+    }
+
+    /** Identity snapshot of TextView contents, to tell which texts a bind actually set. */
+    private static Map<TextView, CharSequence> snapshotTexts(View root) {
+        Map<TextView, CharSequence> out = new IdentityHashMap<>();
+        List<TextView> views = new ArrayList<>();
+        collectTextViews(root, views);
+        for (TextView tv : views) {
+            out.put(tv, tv.getText());
+        }
+        return out;
+    }
+
+    private static List<CharSequence> collectProducedTexts(View root, Map<TextView, CharSequence> before) {
+        List<TextView> views = new ArrayList<>();
+        collectTextViews(root, views);
+        List<CharSequence> out = new ArrayList<>();
+        for (TextView tv : views) {
+            CharSequence text = tv.getText();
+            if (text == null || text.length() == 0 || text instanceof Editable) continue;
+            // Unchanged by this bind: either a static label or a translation we applied earlier.
+            if (before != null && before.get(tv) == text) continue;
+            out.add(text);
+        }
+        return out;
+    }
+
+    private static void collectTextViews(View view, List<TextView> out) {
+        if (out.size() >= MAX_TEXTS_PER_ITEM || view.getVisibility() == View.GONE) return;
+        if (view instanceof TextView) {
+            if (!(view instanceof EditText)) out.add((TextView) view);
+            return;
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                collectTextViews(group.getChildAt(i), out);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package tianci.dev.xptranslatetext.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Tracks how often each setText target changes, to stop translating live values
+ * (timers, progress, typing indicators, counters) whose results are stale on arrival.
+ *
+ * Targets that change about once a second or more often (clocks, countdowns, tickers) are
+ * debounced: only a value that stays put for longer than the target's usual interval between
+ * changes, and at least {@link #DEBOUNCE_MS}, is translated. A value ticking steadily therefore
+ * is not translated until it stops. Targets that change several times per second wait for
+ * {@link #SETTLE_MS} of quiet instead, so the value they settle on (e.g. "Download complete"
+ * after a run of progress updates) is still translated. Either way a numeric template may
+ * render them locally meanwhile.
+ *
+ * The history of a target starts over when its text changes shape (a different number of
+ * digit runs, or a different length class), and when a recycled list row is bound to a new
+ * item ({@link #reset}), so a new value or a fling through a list does not count as churn.
+ */
+public final class ChurnDetector {
+
+    public enum Verdict {
+        /** Normal text; translate as usual. */
+        STEADY,
+        /** Changing often; translate only once it settles. */
+        DEBOUNCE,
+        /** Changing constantly; translate only after {@link #SETTLE_MS} of quiet. */
+        DROP
+    }
+
+    // Wide enough that a 1 Hz updater reaches DEBOUNCE_CHANGES.
+    private static final long WINDOW_MS = 5000;
+    /** Changes within {@link #WINDOW_MS} from which a target counts as churning. */
+    private static final int DEBOUNCE_CHANGES = 4;
+    private static final int DROP_CHANGES = 20;
+    private static final long DEBOUNCE_MS = 400;
+    private static final long MAX_DEBOUNCE_MS = 3000;
+    /** Quiet time before a dropped target's value is translated: a whole window without churn. */
+    static final long SETTLE_MS = WINDOW_MS;
+
+    private static final class State {
+        final long[] changes = new long[DROP_CHANGES];
+        int next;
+        // Mean time between the changes within the window; 0 with fewer than two.
+        long intervalMs;
+        boolean dropped;
+        int shape;
+        Runnable pending;
+    }
+
+    private static final Map<Object, State> STATES = new WeakHashMap<>();
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private ChurnDetector() { }
+
+    /** Records a change of {@code target} to {@code text} and classifies its current change rate. */
+    public static Verdict record(Object target, CharSequence text) {
+        long now = SystemClock.uptimeMillis();
+        int shape = shapeOf(text);
+        synchronized (STATES) {
+            State s = STATES.get(target);
+            if (s == null) {
+                s = new State();
+                STATES.put(target, s);
+            } else if (s.shape != shape) {
+                Arrays.fill(s.changes, 0);
+                s.next = 0;
+            }
+            s.shape = shape;
+            s.changes[s.next] = now;
+            s.next = (s.next + 1) % s.changes.length;
+
+            int recent = 0;
+            long oldest = now;
+            for (long t : s.changes) {
+                if (t != 0 && now - t <= WINDOW_MS) {
+                    recent++;
+                    oldest = Math.min(oldest, t);
+                }
+            }
+            s.intervalMs = recent > 1 ? (now - oldest) / (recent - 1) : 0;
+            s.dropped = recent >= DROP_CHANGES;
+            if (s.dropped) return Verdict.DROP;
+            if (recent >= DEBOUNCE_CHANGES) return Verdict.DEBOUNCE;
+            return Verdict.STEADY;
+        }
+    }
+
+    /**
+     * Runs {@code task} on the main thread once {@code target} has been quiet for half again its
+     * usual interval between changes (between {@link #DEBOUNCE_MS} and {@link #MAX_DEBOUNCE_MS}),
+     * or for {@link #SETTLE_MS} after a {@link Verdict#DROP}.
+     */
+    public static void debounce(Object target, Runnable task) {
+        synchronized (STATES) {
+            State s = STATES.get(target);
+            if (s == null) {
+                task.run();
+                return;
+            }
+            cancelLocked(s);
+            Runnable wrapped = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (STATES) {
+                        State cur = STATES.get(target);
+                        if (cur == null || cur.pending != this) return;
+                        cur.pending = null;
+                    }
+                    task.run();
+                }
+            };
+            s.pending = wrapped;
+            MAIN.postDelayed(wrapped, s.dropped ? SETTLE_MS : debounceDelayMs(s.intervalMs));
+        }
+    }
+
+    static long debounceDelayMs(long intervalMs) {
+        return Math.max(DEBOUNCE_MS, Math.min(MAX_DEBOUNCE_MS, intervalMs * 3 / 2));
+    }
+
+    /**
+     * Number of digit runs and length class (powers of two) of {@code text}. Values of a live
+     * counter keep their shape; a different message usually does not.
+     */
+    static int shapeOf(CharSequence text) {
+        if (text == null) return 0;
+        int runs = 0;
+        boolean inDigits = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean digit = Character.isDigit(text.charAt(i));
+            if (digit && !inDigits) runs++;
+            inDigits = digit;
+        }
+        int lengthClass = 32 - Integer.numberOfLeadingZeros(text.length());
+        return runs << 6 | lengthClass;
+    }
+
+    /** Forgets the history of {@code target}, e.g. a recycled list row bound to a new item. */
+    public static void reset(Object target) {
+        synchronized (STATES) {
+            State s = STATES.remove(target);
+            if (s != null) cancelLocked(s);
+        }
+    }
+
+    /** Drops any debounced task still waiting for {@code target}. */
+    public static void cancel(Object target) {
+        synchronized (STATES) {
+            State s = STATES.get(target);
+            if (s != null) cancelLocked(s);
+        }
+    }
+
+    private static void cancelLocked(State s) {
+        if (s.pending != null) {
+            MAIN.removeCallbacks(s.pending);
+            s.pending = null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package tianci.dev.xptranslatetext.view;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.Layout;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+import de.robv.android.xposed.callbacks.XC_LoadPackage;
+
+/**
+ * Re-renders custom-drawn text once a StaticLayout prefetch has landed in the cache.
+ *
+ * When StaticLayout.Builder.build() misses, the untranslated layout is returned and the
+ * builder text is registered here as pending. The View that draws that layout is linked
+ * weakly while pending; when the prefetch completes, only those views are invalidated and
+ * re-laid out, batched on the next frame so their next build() hits the cache.
+ */
+public final class PendingLayoutRefresher {
+
+    /** Entries that never got an owner or a result are dropped after this long. */
+    private static final long PENDING_TTL_MS = 10_000;
+    /** Upper bound on tracked texts to keep the per-draw lookup cheap. */
+    private static final int MAX_PENDING = 128;
+
+    private static final class Pending {
+        final WeakReference<CharSequence> text;
+        final String key;
+        final long createdAt = SystemClock.uptimeMillis();
+        final Set<View> owners = Collections.newSetFromMap(new WeakHashMap<>());
+        volatile boolean completed;
+
+        Pending(CharSequence text, String key) {
+            this.text = new WeakReference<>(text);
+            this.key = key;
+        }
+    }
+
+    private static final Map<String, Pending> PENDING = new ConcurrentHashMap<>();
+    private static final ThreadLocal<View> DRAWING_VIEW = new ThreadLocal<>();
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    // Main-thread only: views to refresh on the next frame.
+    private static final Set<View> FRAME_BATCH = Collections.newSetFromMap(new WeakHashMap<>());
+    private static boolean frameScheduled;
+
+    private static volatile ClassLoader hookClassLoader;
+    private static volatile boolean viewDrawHooked;
+
+    private PendingLayoutRefresher() { }
+
+    /** Hooks Layout draw calls so a pending text can be linked to the View drawing it. */
+    public static void install(final XC_LoadPackage.LoadPackageParam lpparam) {
+        hookClassLoader = lpparam.classLoader;
+        XC_MethodHook layoutDraw = new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) {
+                if (PENDING.isEmpty()) return;
+                View owner = DRAWING_VIEW.get();
+                if (owner == null) return;
+                bindOwner(((Layout) param.thisObject).getText(), owner);
+            }
+        };
+        try {
+            XposedHelpers.findAndHookMethod("android.text.Layout", lpparam.classLoader,
+                    "draw", Canvas.class, layoutDraw);
+            XposedHelpers.findAndHookMethod("android.text.Layout", lpparam.classLoader,
+                    "draw", Canvas.class, Path.class, Paint.class, int.class, layoutDraw);
+        } catch (Throwable t) {
+            XposedBridge.log("hook Layout.draw for pending refresh failed => " + t.getMessage());
+        }
+    }
+
+    /**
+     * Registers {@code text} (the builder's text object) as waiting for a prefetch of {@code key}.
+     * Must be paired with {@link #onPrefetchCompleted(String)}.
+     */
+    public static void markPending(CharSequence text, String key) {
+        if (text == null || key == null) return;
+        purgeExpired();
+        if (PENDING.size() >= MAX_PENDING) return;
+        PENDING.putIfAbsent(key, new Pending(text, key));
+        ensureViewDrawHooked();
+    }
+
+    /** Called from any thread once the prefetch for {@code key} has populated the cache. */
+    public static void onPrefetchCompleted(String key) {
+        MAIN.post(() -> {
+            Pending p = PENDING.get(key);
+            if (p == null) return;
+            p.completed = true;
+            if (!p.owners.isEmpty()) {
+                PENDING.remove(key);
+                scheduleRefresh(p.owners);
+            }
+            // No owner yet: keep the entry so the first draw refreshes it (until TTL).
+        });
+    }
+
+    /** Drops a pending entry whose prefetch did not produce a cached translation. */
+    public static void discard(String key) {
+        if (key != null) PENDING.remove(key);
+    }
+
+    private static void bindOwner(CharSequence layoutText, View owner) {
+        if (layoutText == null) return;
+        String flat = null;
+        for (Pending p : PENDING.values()) {
+            // Identity first; layouts may wrap the builder text (e.g. ellipsizing), so fall back to content.
+            boolean match = p.text.get() == layoutText;
+            if (!match && layoutText.length() >= p.key.length()) {
+                if (flat == null) flat = layoutText.toString();
+                match = flat.contains(p.key);
+            }
+            if (!match) continue;
+            p.owners.add(owner);
+            if (p.completed) {
+                PENDING.remove(p.key);
+                scheduleRefresh(p.owners);
+            }
+        }
+    }
+
+    private static void scheduleRefresh(Set<View> views) {
+        FRAME_BATCH.addAll(views);
+        if (frameScheduled) return;
+        frameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos -> {
+            frameScheduled = false;
+            List<View> batch = new ArrayList<>(FRAME_BATCH);
+            FRAME_BATCH.clear();
+            for (View v : batch) {
+                if (v == null || !v.isAttachedToWindow()) continue;
+                // Custom views usually rebuild their layout on measure; invalidate covers the rest.
+                v.requestLayout();
+                v.invalidate();
+            }
+            if (!batch.isEmpty()) {
+                XposedBridge.log("[StaticLayout.Builder] refreshed " + batch.size() + " view(s) after prefetch.");
+            }
+        });
+    }
+
+    private static void purgeExpired() {
+        long now = SystemClock.uptimeMillis();
+        Iterator<Pending> it = PENDING.values().iterator();
+        while (it.hasNext()) {
+            Pending p = it.next();
+            if (now - p.createdAt > PENDING_TTL_MS || p.text.get() == null) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * View.draw(Canvas) runs for every view on every frame, so it is only hooked once
+     * something is actually pending, and does no work while nothing is.
+     */
+    private static void ensureViewDrawHooked() {
+        if (viewDrawHooked || hookClassLoader == null) return;
+        synchronized (PendingLayoutRefresher.class) {
+            if (viewDrawHooked) return;
+            viewDrawHooked = true;
+            try {
+                XposedHelpers.findAndHookMethod("android.view.View", hookClassLoader,
+                        "draw", Canvas.class, new XC_MethodHook() {
+                            @Override
+                            protected void beforeHookedMethod(MethodHookParam param) {
+                                if (PENDING.isEmpty()) return;
+                                param.setObjectExtra("xp_prev_drawing_view", DRAWING_VIEW.get());
+                                param.setObjectExtra("xp_drawing_pushed", Boolean.TRUE);
+                                DRAWING_VIEW.set((View) param.thisObject);
+                            }
+
+                            @Override
+                            protected void afterHookedMethod(MethodHookParam param) {
+                                if (param.getObjectExtra("xp_drawing_pushed") == null) return;
+                                DRAWING_VIEW.set((View) param.getObjectExtra("xp_prev_drawing_view"));
+                            }
+                        });
+            } catch (Throwable t) {
+                XposedBridge.log("hook View.draw for pending refresh failed => " + t.getMessage());
+            }
+        }
+    }
+}
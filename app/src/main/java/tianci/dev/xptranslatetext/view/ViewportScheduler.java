@@ -0,0 +1,144 @@
+package tianci.dev.xptranslatetext.view;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Defers translation work for views nobody can see.
+ *
+ * A view is translated immediately when it is attached, shown and (once laid out) intersects
+ * the screen. Otherwise the latest task for that view is parked: detached views wait for
+ * {@link View.OnAttachStateChangeListener#onViewAttachedToWindow(View)}, attached but hidden or
+ * off-screen views are re-checked in the pre-draw pass. Main thread only.
+ */
+public final class ViewportScheduler {
+
+    /** Minimum spacing between pre-draw visibility sweeps while scrolling. */
+    private static final long PRE_DRAW_CHECK_INTERVAL_MS = 50;
+
+    private static final class Deferred implements View.OnAttachStateChangeListener {
+        Runnable task;
+
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            // Position is only meaningful after layout; decide in the pre-draw pass.
+            watch(v);
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            WATCHED.remove(v);
+        }
+    }
+
+    private static final class TreeWatcher implements ViewTreeObserver.OnPreDrawListener {
+        final WeakReference<View> root;
+        long lastCheckAt;
+
+        TreeWatcher(View root) {
+            this.root = new WeakReference<>(root);
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            long now = SystemClock.uptimeMillis();
+            if (now - lastCheckAt >= PRE_DRAW_CHECK_INTERVAL_MS) {
+                lastCheckAt = now;
+                runNowVisible();
+            }
+            if (WATCHED.isEmpty()) {
+                View r = root.get();
+                if (r != null) {
+                    ViewTreeObserver vto = r.getViewTreeObserver();
+                    if (vto.isAlive()) vto.removeOnPreDrawListener(this);
+                    TREE_WATCHERS.remove(r);
+                }
+            }
+            return true;
+        }
+    }
+
+    // Values are weak as well: the view holds the listener, and the task captures the view.
+    private static final Map<View, WeakReference<Deferred>> DEFERRED = new WeakHashMap<>();
+    private static final Set<View> WATCHED = Collections.newSetFromMap(new WeakHashMap<>());
+    private static final Map<View, TreeWatcher> TREE_WATCHERS = new WeakHashMap<>();
+    private static final Rect TMP_RECT = new Rect();
+
+    private ViewportScheduler() { }
+
+    /**
+     * Runs {@code task} now if {@code view} is visible on screen, otherwise once it becomes so.
+     * A later call for the same view replaces any task still waiting.
+     */
+    public static void runWhenVisible(View view, Runnable task) {
+        if (isVisibleOnScreen(view)) {
+            cancel(view);
+            task.run();
+            return;
+        }
+        Deferred d = deferredOf(view);
+        if (d == null) {
+            d = new Deferred();
+            DEFERRED.put(view, new WeakReference<>(d));
+            view.addOnAttachStateChangeListener(d);
+        }
+        d.task = task;
+        if (view.isAttachedToWindow()) {
+            watch(view);
+        }
+    }
+
+    /** Drops any task still waiting for {@code view}. */
+    public static void cancel(View view) {
+        Deferred d = deferredOf(view);
+        if (d == null) return;
+        DEFERRED.remove(view);
+        WATCHED.remove(view);
+        view.removeOnAttachStateChangeListener(d);
+        d.task = null;
+    }
+
+    /** Attached, shown, and either not yet laid out or intersecting the visible window area. */
+    public static boolean isVisibleOnScreen(View view) {
+        if (!view.isAttachedToWindow() || !view.isShown()) return false;
+        if (view.getWidth() == 0 && view.getHeight() == 0) {
+            // Freshly attached and not measured yet: position unknown, treat as visible.
+            return true;
+        }
+        return view.getGlobalVisibleRect(TMP_RECT);
+    }
+
+    private static Deferred deferredOf(View view) {
+        WeakReference<Deferred> ref = DEFERRED.get(view);
+        return ref == null ? null : ref.get();
+    }
+
+    private static void watch(View view) {
+        WATCHED.add(view);
+        View root = view.getRootView();
+        if (root == null || TREE_WATCHERS.containsKey(root)) return;
+        TreeWatcher watcher = new TreeWatcher(root);
+        TREE_WATCHERS.put(root, watcher);
+        root.getViewTreeObserver().addOnPreDrawListener(watcher);
+    }
+
+    private static void runNowVisible() {
+        if (WATCHED.isEmpty()) return;
+        for (View v : new ArrayList<>(WATCHED)) {
+            if (v == null || !isVisibleOnScreen(v)) continue;
+            Deferred d = deferredOf(v);
+            Runnable task = d == null ? null : d.task;
+            cancel(v);
+            if (task != null) task.run();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package de.robv.android.xposed;
+
+/**
+ * Host-side stand-in for the framework class, whose API jar is compileOnly and whose methods
+ * throw outside an Xposed process. Only logging is needed by the code under test.
+ */
+public final class XposedBridge {
+
+    private XposedBridge() { }
+
+    public static void log(String text) {
+        System.out.println(text);
+    }
+
+    public static void log(Throwable t) {
+        t.printStackTrace(System.out);
+    }
+}
@@ -0,0 +1,122 @@
+package tianci.dev.xptranslatetext.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LocalSocketProtocolTest {
+
+    private static ByteBuffer body(byte[] frame) throws IOException {
+        return LocalSocketProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(frame)));
+    }
+
+    private static void assertRejected(ByteBuffer b, boolean request) {
+        try {
+            if (request) {
+                LocalSocketProtocol.decodeRequest(b);
+            } else {
+                LocalSocketProtocol.decodeResponse(b);
+            }
+            fail("accepted a malformed frame");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void request_roundTrips() throws IOException {
+        LocalSocketProtocol.Request in = new LocalSocketProtocol.Request(
+                42, LocalSocketProtocol.PRIORITY_BACKGROUND, 250, "en", "zh-TW", "Hello, 世界 😀");
+        LocalSocketProtocol.Request out = LocalSocketProtocol.decodeRequest(body(LocalSocketProtocol.encodeRequest(in)));
+        assertEquals(42, out.id);
+        assertEquals(LocalSocketProtocol.PRIORITY_BACKGROUND, out.priority);
+        assertEquals(250, out.budgetMs);
+        assertEquals("en", out.src);
+        assertEquals("zh-TW", out.dst);
+        assertEquals("Hello, 世界 😀", out.text);
+    }
+
+    @Test
+    public void request_nullStringsBecomeEmpty() throws IOException {
+        LocalSocketProtocol.Request in = new LocalSocketProtocol.Request(1, LocalSocketProtocol.PRIORITY_QUICK, 0, null, null, null);
+        LocalSocketProtocol.Request out = LocalSocketProtocol.decodeRequest(body(LocalSocketProtocol.encodeRequest(in)));
+        assertEquals("", out.src);
+        assertEquals("", out.dst);
+        assertEquals("", out.text);
+    }
+
+    @Test
+    public void response_roundTrips() throws IOException {
+        LocalSocketProtocol.Response in = new LocalSocketProtocol.Response(-7, LocalSocketProtocol.STATUS_BUSY, "deadline exceeded");
+        LocalSocketProtocol.Response out = LocalSocketProtocol.decodeResponse(body(LocalSocketProtocol.encodeResponse(in)));
+        assertEquals(-7, out.id);
+        assertEquals(LocalSocketProtocol.STATUS_BUSY, out.status);
+        assertEquals("deadline exceeded", out.text);
+    }
+
+    @Test
+    public void readFrame_readsConsecutiveFramesThenEof() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        LocalSocketProtocol.writeFrame(stream, LocalSocketProtocol.encodeResponse(new LocalSocketProtocol.Response(1, LocalSocketProtocol.STATUS_OK, "a")));
+        LocalSocketProtocol.writeFrame(stream, LocalSocketProtocol.encodeResponse(new LocalSocketProtocol.Response(2, LocalSocketProtocol.STATUS_OK, "b")));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream.toByteArray()));
+        assertEquals("a", LocalSocketProtocol.decodeResponse(LocalSocketProtocol.readFrame(in)).text);
+        assertEquals("b", LocalSocketProtocol.decodeResponse(LocalSocketProtocol.readFrame(in)).text);
+        try {
+            LocalSocketProtocol.readFrame(in);
+            fail("read past the last frame");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void readFrame_rejectsBadLengths() {
+        for (int len : new int[]{0, -1, LocalSocketProtocol.MAX_FRAME_BYTES + 1}) {
+            byte[] frame = ByteBuffer.allocate(8).putInt(len).array();
+            try {
+                body(frame);
+                fail("accepted frame length " + len);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void decode_rejectsEveryTruncation() throws IOException {
+        byte[] request = LocalSocketProtocol.encodeRequest(new LocalSocketProtocol.Request(
+                3, LocalSocketProtocol.PRIORITY_FOREGROUND, 100, "ja", "en", "テキスト"));
+        ByteBuffer whole = body(request);
+        for (int n = 0; n < whole.limit(); n++) {
+            assertRejected(ByteBuffer.wrap(Arrays.copyOf(whole.array(), n)), true);
+        }
+
+        byte[] response = LocalSocketProtocol.encodeResponse(new LocalSocketProtocol.Response(3, LocalSocketProtocol.STATUS_OK, "text"));
+        whole = body(response);
+        for (int n = 0; n < whole.limit(); n++) {
+            assertRejected(ByteBuffer.wrap(Arrays.copyOf(whole.array(), n)), false);
+        }
+    }
+
+    @Test
+    public void decode_rejectsWrongTypeAndBadStringLengths() throws IOException {
+        ByteBuffer response = body(LocalSocketProtocol.encodeResponse(new LocalSocketProtocol.Response(1, LocalSocketProtocol.STATUS_OK, "x")));
+        assertRejected(response.duplicate(), true);
+
+        ByteBuffer request = body(LocalSocketProtocol.encodeRequest(new LocalSocketProtocol.Request(1, LocalSocketProtocol.PRIORITY_QUICK, 0, "en", "de", "x")));
+        assertRejected(request.duplicate(), false);
+
+        // Text length claims more bytes than the frame has, or is negative.
+        for (int bad : new int[]{2, -1}) {
+            ByteBuffer b = body(LocalSocketProtocol.encodeResponse(new LocalSocketProtocol.Response(1, LocalSocketProtocol.STATUS_OK, "x")));
+            b.putInt(1 + 4 + 1, bad);
+            assertRejected(b, false);
+        }
+    }
+}
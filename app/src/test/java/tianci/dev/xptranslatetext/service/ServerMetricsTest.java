@@ -0,0 +1,81 @@
+package tianci.dev.xptranslatetext.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class ServerMetricsTest {
+
+    /** Values around every power of two up to the histogram's range, plus small exact ones. */
+    private static List<Long> samples() {
+        List<Long> out = new ArrayList<>();
+        for (long v = 0; v < 64; v++) out.add(v);
+        for (int bit = 6; bit < 30; bit++) {
+            long p = 1L << bit;
+            out.add(p - 1);
+            out.add(p);
+            out.add(p + 1);
+            out.add(p + p / 3);
+        }
+        return out;
+    }
+
+    @Test
+    public void histogram_bucketsAreContiguousAndIncreasing() {
+        int last = ServerMetrics.Histogram.index(Long.MAX_VALUE);
+        assertEquals(1, ServerMetrics.Histogram.upperBound(0));
+        for (int i = 1; i <= last; i++) {
+            assertTrue("bucket " + i, ServerMetrics.Histogram.upperBound(i) > ServerMetrics.Histogram.upperBound(i - 1));
+        }
+    }
+
+    @Test
+    public void histogram_valueFallsInsideItsBucket() {
+        int last = ServerMetrics.Histogram.index(Long.MAX_VALUE);
+        for (long v : samples()) {
+            int i = ServerMetrics.Histogram.index(v);
+            if (i == last) continue;
+            long lower = i == 0 ? 0 : ServerMetrics.Histogram.upperBound(i - 1);
+            long upper = ServerMetrics.Histogram.upperBound(i);
+            assertTrue(v + " below bucket " + i, v >= lower);
+            assertTrue(v + " above bucket " + i, v < upper);
+            // Log-linear: a bucket is at most 1/8 of its values wide.
+            assertTrue(v + " in a wide bucket", upper - lower <= Math.max(1, lower / 8));
+        }
+    }
+
+    @Test
+    public void histogram_clampsHugeValuesIntoLastBucket() {
+        int last = ServerMetrics.Histogram.index(Long.MAX_VALUE);
+        assertEquals(last, ServerMetrics.Histogram.index(Long.MAX_VALUE / 2));
+        // Several minutes still resolve to a real bucket.
+        assertTrue(ServerMetrics.Histogram.index(300_000_000L) < last);
+        assertTrue(ServerMetrics.Histogram.upperBound(last - 1) > 300_000_000L);
+    }
+
+    @Test
+    public void histogram_quantilesNeverExceedMax() {
+        ServerMetrics.Histogram h = new ServerMetrics.Histogram();
+        for (int i = 0; i < 99; i++) h.recordNanos(1_000_000);
+        h.recordNanos(9_000_000);
+        StringBuilder sb = new StringBuilder();
+        h.appendTo(sb, "m", "stage=\"s\"");
+        String out = sb.toString();
+        // Quantiles report the upper bound of the bucket holding 1000 µs, unless that exceeds the max.
+        long upper = ServerMetrics.Histogram.upperBound(ServerMetrics.Histogram.index(1000));
+        assertTrue(out, out.contains("m{stage=\"s\",quantile=\"0.5\"} " + String.format(Locale.ROOT, "%.6f", upper / 1e6)));
+        assertTrue(out, out.contains("m{stage=\"s\",quantile=\"0.99\"} " + String.format(Locale.ROOT, "%.6f", upper / 1e6)));
+        assertTrue(out, out.contains("m_sum{stage=\"s\"} 0.108000\n"));
+        assertTrue(out, out.contains("m_count{stage=\"s\"} 100\n"));
+
+        ServerMetrics.Histogram one = new ServerMetrics.Histogram();
+        one.recordNanos(9_000_000);
+        sb.setLength(0);
+        one.appendTo(sb, "m", "stage=\"s\"");
+        assertTrue(sb.toString(), sb.toString().contains("quantile=\"0.99\"} 0.009000\n"));
+    }
+}
@@ -0,0 +1,87 @@
+package tianci.dev.xptranslatetext.translate;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import tianci.dev.xptranslatetext.util.JsonReader;
+
+import static org.junit.Assert.*;
+
+public class GeminiProviderTest {
+
+    private static final List<String> TEXTS = Arrays.asList("Hello", "World", "Bye");
+
+    private static List<String> parse(String reply) {
+        return GeminiProvider.parseBatchResult("test", reply, TEXTS);
+    }
+
+    @Test
+    public void parseBatchResult_acceptsItemsInOrder() {
+        List<String> out = parse("[{\"i\":0,\"t\":\" 你好 \"},{\"t\":\"世界\",\"i\":1},{\"i\":2,\"t\":\"再見\",\"extra\":[1,{}]}]");
+        assertEquals(Arrays.asList("你好", "世界", "再見"), out);
+    }
+
+    @Test
+    public void parseBatchResult_rejectsWrongCount() {
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"},{\"i\":1,\"t\":\"b\"}]"));
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"},{\"i\":1,\"t\":\"b\"},{\"i\":2,\"t\":\"c\"},{\"i\":3,\"t\":\"d\"}]"));
+        assertNull(parse("[]"));
+    }
+
+    @Test
+    public void parseBatchResult_rejectsWrongOrder() {
+        assertNull(parse("[{\"i\":1,\"t\":\"b\"},{\"i\":0,\"t\":\"a\"},{\"i\":2,\"t\":\"c\"}]"));
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"},{\"i\":0,\"t\":\"a\"},{\"i\":2,\"t\":\"c\"}]"));
+        assertNull(parse("[{\"t\":\"a\"},{\"i\":1,\"t\":\"b\"},{\"i\":2,\"t\":\"c\"}]"));
+    }
+
+    @Test
+    public void parseBatchResult_rejectsMissingOrEmptyTranslations() {
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"},{\"i\":1},{\"i\":2,\"t\":\"c\"}]"));
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"},{\"i\":1,\"t\":\"  \"},{\"i\":2,\"t\":\"c\"}]"));
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"},{\"i\":1,\"t\":2},{\"i\":2,\"t\":\"c\"}]"));
+    }
+
+    @Test
+    public void parseBatchResult_allowsEmptyTranslationOfBlankText() {
+        List<String> out = GeminiProvider.parseBatchResult("test", "[{\"i\":0,\"t\":\"\"},{\"i\":1,\"t\":\"b\"}]", Arrays.asList(" ", "B"));
+        assertEquals(Arrays.asList("", "b"), out);
+    }
+
+    @Test
+    public void parseBatchResult_rejectsOtherShapes() {
+        assertNull(parse("{\"i\":0,\"t\":\"a\"}"));
+        assertNull(parse("[\"a\",\"b\",\"c\"]"));
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"},{\"i\":1,\"t\":\"b\"},,{\"i\":2,\"t\":\"c\"}]"));
+        assertNull(parse("[{\"i\":0,\"t\":\"a\"}"));
+        assertNull(parse("not json"));
+    }
+
+    @Test
+    public void batchRequestBody_numbersItemsInOrder() throws IOException {
+        byte[] body = GeminiProvider.batchRequestBody(TEXTS, "zh-TW").toByteArray();
+        JsonReader r = new JsonReader(body);
+        r.beginObject();
+        assertTrue(r.findName("contents"));
+        r.beginArray();
+        r.beginObject();
+        assertTrue(r.findName("parts"));
+        r.beginArray();
+        r.beginObject();
+        assertTrue(r.findName("text"));
+        String items = r.nextString();
+
+        // The user message is the same shape the reply must have.
+        assertEquals(TEXTS, GeminiProvider.parseBatchResult("test", items, TEXTS));
+    }
+
+    @Test
+    public void batchTimeoutMs_growsWithInput() {
+        assertEquals(3000, GeminiProvider.batchTimeoutMs(3000, 0));
+        assertEquals(4500, GeminiProvider.batchTimeoutMs(3000, 500));
+        assertEquals(15000, GeminiProvider.batchTimeoutMs(3000, 4000));
+    }
+}
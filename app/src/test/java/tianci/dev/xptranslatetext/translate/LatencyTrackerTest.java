@@ -0,0 +1,58 @@
+package tianci.dev.xptranslatetext.translate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void usesDefaultUntilEnoughSamples() {
+        LatencyTracker t = new LatencyTracker(100, 700, 5000);
+        for (int i = 0; i < 7; i++) t.record(50);
+        assertEquals(-1, t.p95());
+        assertEquals(700, t.timeoutMs());
+        // No early hedge without data.
+        assertEquals(700, t.hedgeAfterMs());
+    }
+
+    @Test
+    public void percentilesOfOneToHundred() {
+        LatencyTracker t = new LatencyTracker(1, 1000, 100_000);
+        for (int ms = 100; ms >= 1; ms--) t.record(ms);
+        assertEquals(95, t.p95());
+        assertEquals(99, t.p99());
+        assertEquals(198, t.timeoutMs());
+        assertEquals(95, t.hedgeAfterMs());
+    }
+
+    @Test
+    public void clampsToFloorAndCeiling() {
+        LatencyTracker fast = new LatencyTracker(100, 700, 5000);
+        for (int i = 0; i < 10; i++) fast.record(10);
+        assertEquals(100, fast.timeoutMs());
+        assertEquals(100, fast.hedgeAfterMs());
+
+        LatencyTracker slow = new LatencyTracker(100, 700, 5000);
+        for (int i = 0; i < 10; i++) slow.record(4000);
+        assertEquals(5000, slow.timeoutMs());
+        assertEquals(4000, slow.hedgeAfterMs());
+    }
+
+    @Test
+    public void forgetsSamplesOutsideTheWindow() {
+        LatencyTracker t = new LatencyTracker(1, 1000, 100_000);
+        for (int i = 0; i < 200; i++) t.record(5000);
+        // 128 newer samples push every slow one out.
+        for (int i = 0; i < 128; i++) t.record(20);
+        assertEquals(20, t.p99());
+        assertEquals(40, t.timeoutMs());
+    }
+
+    @Test
+    public void negativeSamplesCountAsZero() {
+        LatencyTracker t = new LatencyTracker(0, 1000, 100_000);
+        for (int i = 0; i < 10; i++) t.record(-5);
+        assertEquals(0, t.p99());
+    }
+}
@@ -0,0 +1,51 @@
+package tianci.dev.xptranslatetext.translate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NumericTemplatesTest {
+
+    @Test
+    public void rendersLearnedShapeWithNewNumbers() {
+        NumericTemplates.learn("en", "zh-TW", "Uploading 45%", "上傳中 45%");
+        assertEquals("上傳中 99%", NumericTemplates.render("en", "zh-TW", "Uploading 99%"));
+        assertEquals("上傳中 3.5%", NumericTemplates.render("en", "zh-TW", "Uploading 3.5%"));
+    }
+
+    @Test
+    public void keepsNumberOrderOfTheTranslation() {
+        NumericTemplates.learn("en", "ja", "Page 3 of 10", "10 ページ中 3 ページ目");
+        assertEquals("250 ページ中 7 ページ目", NumericTemplates.render("en", "ja", "Page 7 of 250"));
+    }
+
+    @Test
+    public void unknownShapeOrPairRendersNothing() {
+        NumericTemplates.learn("en", "de", "Item 1 left", "Noch 1 Element");
+        assertNull(NumericTemplates.render("en", "fr", "Item 2 left"));
+        assertNull(NumericTemplates.render("en", "de", "Items 2 left"));
+        assertNull(NumericTemplates.render("en", "de", "No digits here"));
+    }
+
+    @Test
+    public void ignoresAmbiguousOrUnmappedTranslations() {
+        // Repeated source numbers cannot be told apart.
+        NumericTemplates.learn("en", "ko", "5 of 5 done", "5개 중 5개 완료");
+        assertNull(NumericTemplates.render("en", "ko", "4 of 5 done"));
+
+        // The translation lost a number.
+        NumericTemplates.learn("en", "ko", "Saved 12 files in 3 folders", "파일 12개 저장됨");
+        assertNull(NumericTemplates.render("en", "ko", "Saved 8 files in 2 folders"));
+
+        // The translation spelled a number differently.
+        NumericTemplates.learn("en", "ko", "Wait 1,000 ms", "1000ms 대기");
+        assertNull(NumericTemplates.render("en", "ko", "Wait 2,000 ms"));
+    }
+
+    @Test
+    public void hasDigit() {
+        assertTrue(NumericTemplates.hasDigit("v2"));
+        assertFalse(NumericTemplates.hasDigit("none"));
+        assertFalse(NumericTemplates.hasDigit(null));
+    }
+}
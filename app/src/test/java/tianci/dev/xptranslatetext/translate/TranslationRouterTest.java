@@ -0,0 +1,116 @@
+package tianci.dev.xptranslatetext.translate;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TranslationRouterTest {
+
+    private static final String SHORT = "OK";
+    private static final String MEDIUM = "A sentence of ordinary length for the router.";
+
+    private static final class FakeProvider implements TranslationProvider {
+        final String name;
+        final int cost;
+        final int quality;
+        boolean supported = true;
+        boolean available = true;
+
+        FakeProvider(String name, int cost, int quality) {
+            this.name = name;
+            this.cost = cost;
+            this.quality = quality;
+        }
+
+        @Override public String name() { return name; }
+        @Override public int cost() { return cost; }
+        @Override public int quality() { return quality; }
+        @Override public int maxBatch() { return 1; }
+        @Override public boolean persistResults() { return true; }
+        @Override public boolean supports(String src, String dst) { return supported; }
+        @Override public boolean available() { return available; }
+
+        @Override
+        public List<String> translate(List<String> texts, String src, String dst, byte priority, HedgedCall.Leg leg) {
+            // Every call fails; used to make a bulkhead unhealthy.
+            return null;
+        }
+    }
+
+    private static ProviderBulkhead bulkhead(FakeProvider p) {
+        return new ProviderBulkhead(p, new LatencyTracker(100, 1000, 5000), 4, 4);
+    }
+
+    private static List<String> route(List<ProviderBulkhead> bulkheads, int chars) {
+        List<String> names = new ArrayList<>();
+        for (ProviderBulkhead b : new TranslationRouter(bulkheads).route(chars, "en", "zh-TW", p -> true)) {
+            names.add(b.provider.name());
+        }
+        return names;
+    }
+
+    private static final FakeProvider CHEAP = new FakeProvider("cheap", 1, 1);
+    private static final FakeProvider GOOD = new FakeProvider("good", 3, 4);
+
+    @Test
+    public void shortText_goesToCheapestProvider() {
+        List<ProviderBulkhead> bulkheads = Arrays.asList(bulkhead(GOOD), bulkhead(CHEAP));
+        assertEquals(Arrays.asList("cheap", "good"), route(bulkheads, SHORT.length()));
+    }
+
+    @Test
+    public void longText_goesToBestProvider() {
+        List<ProviderBulkhead> bulkheads = Arrays.asList(bulkhead(CHEAP), bulkhead(GOOD));
+        assertEquals(Arrays.asList("good", "cheap"), route(bulkheads, TranslationRouter.LONG_TEXT_CHARS));
+        // Ordinary text: cheap 1-1=0, good 3-4=-1.
+        assertEquals(Arrays.asList("good", "cheap"), route(bulkheads, MEDIUM.length()));
+    }
+
+    @Test
+    public void leavesOutDisabledUnsupportedAndUnavailable() {
+        FakeProvider off = new FakeProvider("off", 0, 9);
+        FakeProvider unsupported = new FakeProvider("unsupported", 0, 9);
+        unsupported.supported = false;
+        FakeProvider down = new FakeProvider("down", 0, 9);
+        down.available = false;
+        List<ProviderBulkhead> bulkheads = Arrays.asList(bulkhead(off), bulkhead(unsupported), bulkhead(down), bulkhead(CHEAP));
+
+        List<String> names = new ArrayList<>();
+        for (ProviderBulkhead b : new TranslationRouter(bulkheads).route(10, "en", "de", p -> p != off)) {
+            names.add(b.provider.name());
+        }
+        assertEquals(Collections.singletonList("cheap"), names);
+    }
+
+    @Test
+    public void unhealthyProvider_dropsBehindHealthyOnes() throws Exception {
+        ProviderBulkhead cheap = bulkhead(CHEAP);
+        for (int i = 0; i < 5; i++) {
+            cheap.call(Collections.singletonList("x"), "en", "de", (byte) 0,
+                    new HedgedCall.Leg("cheap", cheap.latency, leg -> null));
+        }
+        assertFalse(cheap.healthy());
+        assertEquals(Arrays.asList("good", "cheap"), route(Arrays.asList(cheap, bulkhead(GOOD)), SHORT.length()));
+    }
+
+    @Test
+    public void ties_goToCheaperThenFaster() {
+        // Ordinary text: both score 0.
+        FakeProvider pricier = new FakeProvider("pricier", 2, 2);
+        assertEquals(Arrays.asList("cheap", "pricier"),
+                route(Arrays.asList(bulkhead(pricier), bulkhead(CHEAP)), MEDIUM.length()));
+
+        ProviderBulkhead slow = bulkhead(new FakeProvider("slow", 1, 1));
+        ProviderBulkhead fast = bulkhead(new FakeProvider("fast", 1, 1));
+        for (int i = 0; i < 20; i++) {
+            slow.latency.record(900);
+            fast.latency.record(200);
+        }
+        assertEquals(Arrays.asList("fast", "slow"), route(Arrays.asList(slow, fast), MEDIUM.length()));
+    }
+}
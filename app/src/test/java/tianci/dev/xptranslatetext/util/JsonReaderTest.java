@@ -0,0 +1,138 @@
+package tianci.dev.xptranslatetext.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class JsonReaderTest {
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Skips one whole document; throws on malformed input. */
+    private static void skipDocument(String json) throws IOException {
+        JsonReader r = reader(json);
+        r.skipValue();
+        assertEquals(JsonReader.END_DOCUMENT, r.peek());
+    }
+
+    private static void assertMalformed(String json) {
+        try {
+            skipDocument(json);
+            fail("accepted " + json);
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void readsNestedDocument() throws IOException {
+        JsonReader r = reader(" {\"a\": [1, -2.5e1, true, false, null], \"b\": {\"c\": \"d\"}} ");
+        r.beginObject();
+        assertEquals("a", r.nextName());
+        r.beginArray();
+        assertEquals(JsonReader.NUMBER, r.peek());
+        assertEquals(1, r.nextLong());
+        assertEquals(-25.0, r.nextDouble(), 0);
+        assertTrue(r.nextBoolean());
+        assertFalse(r.nextBoolean());
+        assertEquals(JsonReader.NULL, r.peek());
+        r.nextNull();
+        assertFalse(r.hasNext());
+        r.endArray();
+        assertEquals("b", r.nextName());
+        r.beginObject();
+        assertEquals("c", r.nextName());
+        assertEquals("d", r.nextString());
+        r.endObject();
+        r.endObject();
+        assertEquals(JsonReader.END_DOCUMENT, r.peek());
+    }
+
+    @Test
+    public void nextString_decodesEscapes() throws IOException {
+        assertEquals("q\"b\\s/\b\f\n\r\t\u00e9\u2028",
+                reader("\"q\\\"b\\\\s\\/\\b\\f\\n\\r\\t\\u00e9\\u2028\"").nextString());
+        assertEquals("中文 ok", reader("\"中文 ok\"").nextString());
+    }
+
+    @Test
+    public void findName_skipsEarlierMembers() throws IOException {
+        JsonReader r = reader("{\"x\": {\"deep\": [1, {\"y\": 2}]}, \"s\": \"a,b\", \"want\": 7}");
+        r.beginObject();
+        assertTrue(r.findName("want"));
+        assertEquals(7, r.nextLong());
+
+        r = reader("{\"x\": 1}");
+        r.beginObject();
+        assertFalse(r.findName("want"));
+        assertEquals(JsonReader.END_DOCUMENT, r.peek());
+    }
+
+    @Test
+    public void acceptsEmptyContainersAndWhitespace() throws IOException {
+        skipDocument("[]");
+        skipDocument("{}");
+        skipDocument(" [ [ ] , { } ]\n");
+        skipDocument("{\"a\":[1,2],\"b\":{}}");
+    }
+
+    @Test
+    public void rejectsMisplacedCommas() {
+        assertMalformed("[1,,2]");
+        assertMalformed("[,1]");
+        assertMalformed("[1,]");
+        assertMalformed("{\"a\":1,}");
+        assertMalformed("{,}");
+        assertMalformed("{\"a\":,\"b\":1}");
+    }
+
+    @Test
+    public void rejectsMissingCommas() {
+        assertMalformed("[1 2]");
+        assertMalformed("{\"a\":1 \"b\":2}");
+        assertMalformed("[\"a\" \"b\"]");
+    }
+
+    @Test
+    public void rejectsMissingValuesAndTruncation() {
+        assertMalformed("{\"a\":}");
+        assertMalformed("{\"a\" 1}");
+        assertMalformed("[1");
+        assertMalformed("\"abc");
+    }
+
+    @Test
+    public void nextString_rejectsBadEscapes() {
+        for (String json : new String[]{"\"bad \\x escape\"", "\"\\u12\"", "\"\\u12zz\"", "\"ends \\"}) {
+            try {
+                reader(json).nextString();
+                fail("accepted " + json);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void badNumbersRaiseIOException() {
+        assertMalformed("[-]");
+        assertMalformed("[1e]");
+        try {
+            JsonReader r = reader("[-]");
+            r.beginArray();
+            r.nextLong();
+            fail("accepted a bare '-'");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void nextLong_acceptsFractionsAndExponents() throws IOException {
+        assertEquals(3, reader("3.9").nextLong());
+        assertEquals(1200, reader("1.2e3").nextLong());
+        assertEquals(Long.MAX_VALUE, reader(String.valueOf(Long.MAX_VALUE)).nextLong());
+    }
+}
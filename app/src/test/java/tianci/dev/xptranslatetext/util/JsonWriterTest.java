@@ -0,0 +1,57 @@
+package tianci.dev.xptranslatetext.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class JsonWriterTest {
+
+    @Test
+    public void placesCommasAndColons() {
+        String json = new JsonWriter()
+                .beginObject()
+                .name("a").beginArray().value(1).value(true).nullValue().value("x").endArray()
+                .name("b").beginObject().endObject()
+                .name("c").value(-7)
+                .endObject()
+                .toString();
+        assertEquals("{\"a\":[1,true,null,\"x\"],\"b\":{},\"c\":-7}", json);
+    }
+
+    @Test
+    public void escapesQuotesBackslashesAndControls() {
+        String json = new JsonWriter().value("q\"b\\n\n\t\u0001").toString();
+        assertEquals("\"q\\\"b\\\\n\\n\\t\\u0001\"", json);
+    }
+
+    @Test
+    public void escapesLineSeparatorsForJavaScript() {
+        String json = new JsonWriter().value("a\u2028b\u2029c").toString();
+        assertEquals("\"a\\u2028b\\u2029c\"", json);
+    }
+
+    @Test
+    public void object_encodesOneMember() {
+        assertEquals("{\"error\":\"busy\"}", new String(JsonWriter.object("error", "busy"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void roundTripsThroughReader() throws IOException {
+        String[] texts = {"", "plain", "中文與 emoji 😀", "quote \" slash \\ / tab \t",
+                "controls \u0000\u001f\u007f", "separators \u2028\u2029", "{\"not\": \"json\"},"};
+        JsonWriter w = new JsonWriter(8).beginArray();
+        for (String t : texts) w.value(t);
+        w.value(Long.MIN_VALUE).value(0.5).endArray();
+
+        JsonReader r = new JsonReader(w.toByteArray());
+        r.beginArray();
+        for (String t : texts) assertEquals(t, r.nextString());
+        assertEquals(Long.MIN_VALUE, r.nextLong());
+        assertEquals(0.5, r.nextDouble(), 0);
+        r.endArray();
+        assertEquals(JsonReader.END_DOCUMENT, r.peek());
+    }
+}
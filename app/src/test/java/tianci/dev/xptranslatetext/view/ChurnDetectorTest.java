@@ -0,0 +1,35 @@
+package tianci.dev.xptranslatetext.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChurnDetectorTest {
+
+    @Test
+    public void debounceDelay_followsTheUpdateInterval() {
+        // Quiet for half again the usual interval: a 1 Hz clock is only translated once it stops.
+        assertEquals(1500, ChurnDetector.debounceDelayMs(1000));
+        assertEquals(600, ChurnDetector.debounceDelayMs(400));
+    }
+
+    @Test
+    public void debounceDelay_isClamped() {
+        assertEquals(400, ChurnDetector.debounceDelayMs(0));
+        assertEquals(400, ChurnDetector.debounceDelayMs(50));
+        assertEquals(3000, ChurnDetector.debounceDelayMs(5000));
+    }
+
+    @Test
+    public void shape_staysWhileALiveValueTicks() {
+        assertEquals(ChurnDetector.shapeOf("Downloading 45%"), ChurnDetector.shapeOf("Downloading 46%"));
+        assertEquals(ChurnDetector.shapeOf("00:59"), ChurnDetector.shapeOf("01:00"));
+    }
+
+    @Test
+    public void shape_changesForADifferentMessage() {
+        assertNotEquals(ChurnDetector.shapeOf("Downloading 99%"), ChurnDetector.shapeOf("Download complete"));
+        assertNotEquals(ChurnDetector.shapeOf("3 new"), ChurnDetector.shapeOf("A much longer message without digits"));
+        assertNotEquals(ChurnDetector.shapeOf("Typing"), ChurnDetector.shapeOf("Typing a long reply"));
+    }
+}